@@ -0,0 +1,69 @@
+import graphtask.jmh.Workload;
+
+/** The benchmarked GraphTask operations, see graphtask.jmh.GraphTaskBenchmark. */
+public class GraphTaskWorkload implements Workload {
+
+   private final GraphTask t = new GraphTask();
+   private int n;
+   private int m;
+   private long seed;
+   private GraphTask.Graph simple;
+   private GraphTask.Graph eulerian;
+   private GraphTask.CompactGraph compact;
+
+   @Override
+   public void setup (int vertices, int edges, long seed) {
+      this.n = vertices;
+      this.m = edges;
+      this.seed = seed;
+      simple = t.new Graph ("G");
+      simple.createRandomSimpleGraph (n, m, seed);
+      eulerian = t.new Graph ("G");
+      eulerian.createRandomEulerianGraph (n, m, seed);
+      compact = t.new GraphGenerator (seed).eulerianGraph (n, m).toCompact ("C");
+   }
+
+   @Override
+   public Object legacyRandomSimpleGraph() {
+      GraphTask.Graph g = t.new Graph ("G");
+      g.createRandomSimpleGraph (n, m);
+      return g;
+   }
+
+   @Override
+   public Object createAdjMatrix() {
+      return simple.createAdjMatrix();
+   }
+
+   @Override
+   public Object generatorSimpleGraph() {
+      return t.new GraphGenerator (seed).simpleGraph (n, m);
+   }
+
+   @Override
+   public Object generatorEulerianGraph() {
+      return t.new GraphGenerator (seed).eulerianGraph (n, m);
+   }
+
+   @Override
+   public Object graphCheckEulerian() {
+      return eulerian.checkEulerian();
+   }
+
+   @Override
+   public Object graphSetEulerianCircuit() {
+      eulerian.setEulerianCircuit();
+      return eulerian;
+   }
+
+   @Override
+   public Object compactCheckEulerian() {
+      return compact.checkEulerian();
+   }
+
+   @Override
+   public Object compactEulerianCircuit() {
+      return compact.eulerianCircuit();
+   }
+
+}
@@ -0,0 +1,97 @@
+package graphtask.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** JMH benchmarks for graph generation, Eulerian check and circuit construction.
+ * Every input is generated from a fixed seed, so results can be compared
+ * across versions. Build, then run with the gc profiler for allocation rates:
+ *    mvn -B -Pjmh package
+ *    java -jar target/benchmarks.jar -prof gc
+ */
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class GraphTaskBenchmark {
+
+   static final long SEED = 20161017L;
+
+   /** Inputs for the generators, the check and the circuit. */
+   @State (Scope.Benchmark)
+   public static class Input {
+
+      @Param ({"1000", "100000"})
+      public int vertices;
+
+      @Param ({"4", "16"})
+      public int density;  // edges per vertex
+
+      Workload w;
+
+      @Setup (Level.Trial)
+      public void setup() {
+         w = Workload.create();
+         w.setup (vertices, density * vertices, SEED);
+      }
+   } // class Input
+
+   /** Inputs for the original string-named graph code, only usable on small sizes. */
+   @State (Scope.Benchmark)
+   public static class LegacyInput {
+
+      @Param ({"100", "1000"})
+      public int legacyVertices;
+
+      Workload w;
+
+      @Setup (Level.Trial)
+      public void setup() {
+         w = Workload.create();
+         w.setup (legacyVertices, 2 * legacyVertices, SEED);
+      }
+   } // class LegacyInput
+
+   @Benchmark
+   public Object legacyRandomSimpleGraph (LegacyInput in) {
+      return in.w.legacyRandomSimpleGraph();
+   }
+
+   @Benchmark
+   public Object createAdjMatrix (LegacyInput in) {
+      return in.w.createAdjMatrix();
+   }
+
+   @Benchmark
+   public Object generatorSimpleGraph (Input in) {
+      return in.w.generatorSimpleGraph();
+   }
+
+   @Benchmark
+   public Object generatorEulerianGraph (Input in) {
+      return in.w.generatorEulerianGraph();
+   }
+
+   @Benchmark
+   public Object graphCheckEulerian (Input in) {
+      return in.w.graphCheckEulerian();
+   }
+
+   @Benchmark
+   public Object graphSetEulerianCircuit (Input in) {
+      return in.w.graphSetEulerianCircuit();
+   }
+
+   @Benchmark
+   public Object compactCheckEulerian (Input in) {
+      return in.w.compactCheckEulerian();
+   }
+
+   @Benchmark
+   public Object compactEulerianCircuit (Input in) {
+      return in.w.compactEulerianCircuit();
+   }
+
+}
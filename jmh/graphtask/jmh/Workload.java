@@ -0,0 +1,45 @@
+package graphtask.jmh;
+
+/** The benchmarked operations on one fixed-seed input.
+ * GraphTask lives in the default package, which a named package cannot
+ * import, and JMH does not accept benchmarks in the default package. So the
+ * benchmarks call this interface and GraphTaskWorkload in the default package
+ * implements it.
+ */
+public interface Workload {
+
+   /**
+    * Prepares the inputs of all operations.
+    * @param vertices number of vertices
+    * @param edges number of edges
+    * @param seed seed of the generated inputs
+    */
+   void setup (int vertices, int edges, long seed);
+
+   Object legacyRandomSimpleGraph();
+
+   Object createAdjMatrix();
+
+   Object generatorSimpleGraph();
+
+   Object generatorEulerianGraph();
+
+   Object graphCheckEulerian();
+
+   Object graphSetEulerianCircuit();
+
+   Object compactCheckEulerian();
+
+   Object compactEulerianCircuit();
+
+   /** @return a new instance of the default-package implementation. */
+   static Workload create() {
+      try {
+         return (Workload)Class.forName ("GraphTaskWorkload")
+            .getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException e) {
+         throw new RuntimeException ("GraphTaskWorkload is missing from the classpath.", e);
+      }
+   }
+
+}
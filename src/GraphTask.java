@@ -1,7 +1,22 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
 
 public class GraphTask {
 
+   private volatile Metrics metrics = null; // null while metrics are disabled.
+
    public static void main (String[] args) {
       GraphTask a = new GraphTask();
       a.run();
@@ -9,7 +24,9 @@ public class GraphTask {
 
    public void run() {
       Graph g = new Graph ("G");
-      g.createRandomSimpleGraph (6, 12);
+      long seed = System.nanoTime();
+      System.out.println ("Seed: " + seed);
+      g.createRandomEulerianGraph (6, 9, seed);
       System.out.println (g);
       g.printAdjMatrix();
       g.setEulerianCircuit();
@@ -17,13 +34,47 @@ public class GraphTask {
       g.printInfo(2);
    }
 
+   /**
+    * Starts collecting metrics for the graphs of this task, or keeps the
+    * metrics already collected.
+    * @return the metrics
+    */
+   public Metrics enableMetrics() {
+      synchronized (this) {
+         if (metrics == null)
+            metrics = new Metrics();
+         return metrics;
+      }
+   }
+
+   /**
+    * Stops collecting metrics; instrumented code is then left with a null check.
+    */
+   public void disableMetrics() {
+      metrics = null;
+   }
+
+   /** @return timer of a phase, null if metrics are disabled. */
+   private Metrics.Span begin (Phase phase) {
+      Metrics m = metrics;
+      return m == null ? null : m.new Span (phase);
+   }
+
+   /** Records a phase begun by begin (Phase), if it was timed. */
+   private void end (Metrics.Span span, String graphId) {
+      if (span != null)
+         span.end (graphId);
+   }
+
 
    class Vertex {
 
-      private String id;
+      private String id; // null for a generated vertex, named "v" + label when printed.
+      private long label = 0;
       private Vertex next;
       private Arc first;
       private int info = 0;
+      private int index = 0; // position of the vertex in the creation order of its graph.
 
       Vertex (String s, Vertex v, Arc e) {
          id = s;
@@ -35,52 +86,3791 @@ public class GraphTask {
          this (s, null, null);
       }
 
-      @Override
-      public String toString() {
-         return id;
+      /** @return dense int id, the position in the creation order of its graph. */
+      public int index() {
+         return index;
+      }
+
+      @Override
+      public String toString() {
+         return id != null ? id : "v" + label;
+      }
+   } // class Vertex.
+
+
+   class Arc {
+
+      private String id; // null for a generated arc, named from its ends when printed.
+      private Vertex source; // set when the arc is added to a graph.
+      private Vertex target;
+      private Arc next;
+      private Arc twin; // reverse arc of the same undirected edge, if there is one.
+      private Arc parallel; // next arc with the same ends, in creation order.
+      private int info = 0;
+      private int index = 0; // position of the arc in the creation order of its graph.
+      private double weight = 1; // length of the arc for route inspection.
+
+      Arc (String s, Vertex v, Arc a) {
+         id = s;
+         target = v;
+         next = a;
+      }
+
+      Arc (String s) {
+         this (s, null, null);
+      }
+
+      /** @return dense int id, the position in the creation order of its graph. */
+      public int index() {
+         return index;
+      }
+
+      /**
+       * The name of a generated arc is "a" + source + "_" + target, or
+       * "a" + index if it is not in a graph.
+       */
+      @Override
+      public String toString() {
+         if (id != null)
+            return id;
+         if (source == null)
+            return "a" + index;
+         return "a" + source + "_" + target;
+      }
+   } // class Arc.
+
+
+   /**
+    * Index of the arcs of one graph by the (from, to) pair of vertex indices.
+    * Open addressing hash table with primitive long keys, so a lookup
+    * takes constant time and allocates nothing. Parallel arcs with the same
+    * ends are chained in creation order; the arcs of a chain that have no
+    * twin yet are always its tail, so pairing takes constant time too.
+    */
+   class ArcIndex {
+
+      private long[] keys;
+      private Arc[] first; // oldest arc of the chain, null marks a free slot.
+      private Arc[] last; // newest arc of the chain.
+      private Arc[] unpaired; // oldest arc of the chain without a twin.
+      private int size = 0;
+
+      ArcIndex() {
+         keys = new long [16];
+         first = new Arc [16];
+         last = new Arc [16];
+         unpaired = new Arc [16];
+      }
+
+      /**
+       * Finds an arc between two vertices.
+       * @param from -- index of the source vertex.
+       * @param to -- index of the target vertex.
+       * @return the first arc from -> to, null if there is none.
+       */
+      Arc get (int from, int to) {
+         int i = find (key (from, to));
+         return first [i];
+      }
+
+      /**
+       * Takes the oldest arc between two vertices that has no twin yet.
+       * @param from -- index of the source vertex.
+       * @param to -- index of the target vertex.
+       * @return the arc, null if all arcs from -> to have twins.
+       */
+      Arc takeUnpaired (int from, int to) {
+         int i = find (key (from, to));
+         Arc res = unpaired [i];
+         if (res != null)
+            unpaired [i] = res.parallel;
+         return res;
+      }
+
+      /**
+       * Appends an arc to the chain of its ends.
+       * @param from -- index of the source vertex.
+       * @param to -- index of the target vertex.
+       * @param a -- the arc from -> to.
+       */
+      void put (int from, int to, Arc a) {
+         if (2 * (size + 1) > keys.length)
+            resize (2 * keys.length);
+         long key = key (from, to);
+         int i = find (key);
+         if (first [i] == null) {
+            keys [i] = key;
+            first [i] = a;
+            size++;
+         } else {
+            last [i].parallel = a;
+         }
+         last [i] = a;
+         if (a.twin == null && unpaired [i] == null)
+            unpaired [i] = a;
+      }
+
+      /**
+       * Removes an arc from the chain of its ends.
+       * @param from -- index of the source vertex.
+       * @param to -- index of the target vertex.
+       * @param a -- the arc from -> to.
+       */
+      void remove (int from, int to, Arc a) {
+         int i = find (key (from, to));
+         Arc prev = null;
+         for (Arc b = first [i]; b != a; b = b.parallel) {
+            if (b == null)
+               throw new RuntimeException ("Arc " + a + " is not in the index.");
+            prev = b;
+         }
+         if (unpaired [i] == a)
+            unpaired [i] = a.parallel;
+         if (last [i] == a)
+            last [i] = prev;
+         if (prev == null)
+            first [i] = a.parallel;
+         else
+            prev.parallel = a.parallel;
+         a.parallel = null;
+         if (first [i] == null)
+            delete (i);
+      }
+
+      /** Frees slot i, moving later keys of its probe sequence back. */
+      private void delete (int i) {
+         int mask = keys.length - 1;
+         for (int j = (i + 1) & mask; first [j] != null; j = (j + 1) & mask) {
+            int k = slot (keys [j], mask);
+            if (i <= j ? i < k && k <= j : i < k || k <= j)
+               continue;
+            keys [i] = keys [j];
+            first [i] = first [j];
+            last [i] = last [j];
+            unpaired [i] = unpaired [j];
+            i = j;
+         }
+         first [i] = null;
+         last [i] = null;
+         unpaired [i] = null;
+         size--;
+      }
+
+      /** @return slot of the key, or the free slot where it belongs. */
+      private int find (long key) {
+         int mask = keys.length - 1;
+         int i = slot (key, mask);
+         while (first [i] != null && keys [i] != key)
+            i = (i + 1) & mask;
+         return i;
+      }
+
+      private void resize (int capacity) {
+         long[] oldKeys = keys;
+         Arc[] oldFirst = first;
+         Arc[] oldLast = last;
+         Arc[] oldUnpaired = unpaired;
+         keys = new long [capacity];
+         first = new Arc [capacity];
+         last = new Arc [capacity];
+         unpaired = new Arc [capacity];
+         for (int j = 0; j < oldKeys.length; j++) {
+            if (oldFirst [j] == null)
+               continue;
+            int i = find (oldKeys [j]);
+            keys [i] = oldKeys [j];
+            first [i] = oldFirst [j];
+            last [i] = oldLast [j];
+            unpaired [i] = oldUnpaired [j];
+         }
+      }
+
+      private long key (int from, int to) {
+         return ((long)from << 32) | (to & 0xffffffffL);
+      }
+
+      private int slot (long key, int mask) {
+         long h = key * 0x9E3779B97F4A7C15L;
+         return (int)(h ^ (h >>> 32)) & mask;
+      }
+   } // class ArcIndex.
+
+
+   /**
+    * Action on the index range [lo, hi) of a fork-join computation.
+    */
+   interface RangeAction {
+      void apply (int lo, int hi);
+   }
+
+
+   /**
+    * Receives the arcs of a circuit one by one.
+    */
+   interface CircuitSink {
+      void arc (int k);
+   }
+
+
+   /**
+    * Phases of the graph pipeline timed by Metrics. Phases may nest, for
+    * example GENERATE builds a MATRIX.
+    */
+   enum Phase {
+      GENERATE, MATRIX, COMPACT, CHECK, CIRCUIT
+   }
+
+
+   /**
+    * Receives every finished phase while metrics are enabled, on the thread
+    * that ran it.
+    */
+   interface MetricsListener {
+      void phaseEnded (Phase phase, String graphId, long nanos, long bytes);
+   }
+
+
+   /**
+    * Management interface of Metrics, arrays are indexed by Phase ordinal.
+    */
+   public interface MetricsMBean {
+      long getArcsVisited();
+      long getRestarts();
+      long getLookups();
+      String[] getPhases();
+      long[] getPhaseCalls();
+      long[] getPhaseNanos();
+      long[] getPhaseBytes();
+      void reset();
+   }
+
+
+   /**
+    * Counters and per-phase timers of the graph pipeline. Hot loops count in
+    * locals and add their totals once per call, so a disabled task pays one
+    * null check per call. A phase that throws is recorded too. Bytes are
+    * those allocated by the thread during the phase, 0 where the JVM does
+    * not measure them.
+    */
+   class Metrics implements MetricsMBean {
+
+      private final LongAdder arcsVisited = new LongAdder(); // arcs looked at by circuit searches.
+      private final LongAdder restarts = new LongAdder(); // subtours resumed from a vertex of the trail.
+      private final LongAdder lookups = new LongAdder(); // calls of Graph.getArc.
+      private final AtomicLongArray calls = new AtomicLongArray (Phase.values().length);
+      private final AtomicLongArray nanos = new AtomicLongArray (Phase.values().length);
+      private final AtomicLongArray bytes = new AtomicLongArray (Phase.values().length);
+      private final List<MetricsListener> listeners = new CopyOnWriteArrayList<MetricsListener>();
+      private final com.sun.management.ThreadMXBean threads;
+
+      Metrics() {
+         java.lang.management.ThreadMXBean t = ManagementFactory.getThreadMXBean();
+         threads = t instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean)t).isThreadAllocatedMemorySupported()
+            ? (com.sun.management.ThreadMXBean)t : null;
+      }
+
+      /**
+       * Timer of one run of a phase.
+       */
+      class Span {
+
+         private final Phase phase;
+         private final long startNanos;
+         private final long startBytes;
+
+         Span (Phase p) {
+            phase = p;
+            startBytes = allocated();
+            startNanos = System.nanoTime();
+         }
+
+         /**
+          * Adds this run to the totals of its phase and tells the listeners.
+          * @param graphId -- graph the phase ran on.
+          */
+         void end (String graphId) {
+            long t = System.nanoTime() - startNanos;
+            long b = allocated() - startBytes;
+            calls.incrementAndGet (phase.ordinal());
+            nanos.addAndGet (phase.ordinal(), t);
+            bytes.addAndGet (phase.ordinal(), b);
+            for (MetricsListener l : listeners)
+               l.phaseEnded (phase, graphId, t, b);
+         }
+      } // class Span.
+
+      private long allocated() {
+         return threads == null ? 0 : threads.getCurrentThreadAllocatedBytes();
+      }
+
+      public void addListener (MetricsListener l) {
+         listeners.add (l);
+      }
+
+      public void removeListener (MetricsListener l) {
+         listeners.remove (l);
+      }
+
+      /**
+       * Registers these metrics with the platform MBean server.
+       * @param name -- object name, e.g. "GraphTask:type=Metrics".
+       * @return the registered name
+       * @throws RuntimeException if the name is malformed or taken.
+       */
+      public ObjectName register (String name) {
+         try {
+            ObjectName res = new ObjectName (name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean
+               (new StandardMBean (this, MetricsMBean.class), res);
+            return res;
+         } catch (JMException e) {
+            throw new RuntimeException ("Metrics cannot be registered as " + name, e);
+         }
+      }
+
+      public long getArcsVisited() {
+         return arcsVisited.sum();
+      }
+
+      public long getRestarts() {
+         return restarts.sum();
+      }
+
+      public long getLookups() {
+         return lookups.sum();
+      }
+
+      public String[] getPhases() {
+         Phase[] p = Phase.values();
+         String[] res = new String [p.length];
+         for (int i = 0; i < p.length; i++)
+            res [i] = p [i].name();
+         return res;
+      }
+
+      public long[] getPhaseCalls() {
+         return toArray (calls);
+      }
+
+      public long[] getPhaseNanos() {
+         return toArray (nanos);
+      }
+
+      public long[] getPhaseBytes() {
+         return toArray (bytes);
+      }
+
+      /** @return number of finished runs of a phase. */
+      public long calls (Phase p) {
+         return calls.get (p.ordinal());
+      }
+
+      /** @return total time of a phase in nanoseconds. */
+      public long nanos (Phase p) {
+         return nanos.get (p.ordinal());
+      }
+
+      /** @return bytes allocated during a phase. */
+      public long bytes (Phase p) {
+         return bytes.get (p.ordinal());
+      }
+
+      public void reset() {
+         arcsVisited.reset();
+         restarts.reset();
+         lookups.reset();
+         for (int i = 0; i < calls.length(); i++) {
+            calls.set (i, 0);
+            nanos.set (i, 0);
+            bytes.set (i, 0);
+         }
+      }
+
+      private long[] toArray (AtomicLongArray a) {
+         long[] res = new long [a.length()];
+         for (int i = 0; i < res.length; i++)
+            res [i] = a.get (i);
+         return res;
+      }
+
+      @Override
+      public String toString() {
+         StringBuilder sb = new StringBuilder ("arcs visited " + getArcsVisited()
+            + ", restarts " + getRestarts() + ", lookups " + getLookups());
+         for (Phase p : Phase.values()) {
+            if (calls (p) > 0)
+               sb.append (String.format ("%n%-8s %6d calls %12d ns %12d bytes",
+                  p, calls (p), nanos (p), bytes (p)));
+         }
+         return sb.toString();
+      }
+   } // class Metrics.
+
+
+   /**
+    * Circuit sink writing to a channel through one reusable buffer, either
+    * the arc numbers as binary ints or the arc ids as text lines.
+    */
+   class CircuitWriter implements CircuitSink {
+
+      private final CompactGraph graph;
+      private final WritableByteChannel out;
+      private final boolean binary;
+      private final ByteBuffer buffer = ByteBuffer.allocateDirect (1 << 16);
+
+      CircuitWriter (CompactGraph g, WritableByteChannel ch, boolean binary) {
+         graph = g;
+         out = ch;
+         this.binary = binary;
+      }
+
+      @Override
+      public void arc (int k) {
+         if (binary) {
+            if (buffer.remaining() < 4)
+               flush();
+            buffer.putInt (k);
+            return;
+         }
+         byte[] line = (graph.arcId (k) + "\n").getBytes (StandardCharsets.UTF_8);
+         if (buffer.remaining() < line.length)
+            flush();
+         if (line.length > buffer.capacity()) {
+            write (ByteBuffer.wrap (line));
+            return;
+         }
+         buffer.put (line);
+      }
+
+      /**
+       * Writes out everything buffered so far.
+       * @throws UncheckedIOException if writing fails.
+       */
+      public void flush() {
+         buffer.flip();
+         write (buffer);
+         buffer.clear();
+      }
+
+      private void write (ByteBuffer b) {
+         try {
+            while (b.hasRemaining())
+               out.write (b);
+         } catch (IOException e) {
+            throw new UncheckedIOException (e);
+         }
+      }
+   } // class CircuitWriter.
+
+
+   /**
+    * Binary graph file: the CSR arrays of a compact graph as big-endian ints
+    * after a header (magic, version, flags, vertex and arc counts), then the
+    * vertex labels as longs if the labels flag is set. Arrays are written and
+    * read through memory-mapped windows of at most 1 GB, so there is no
+    * per-edge parsing and files over 2 GB work too. Version 1 files have no
+    * labels and are still read.
+    */
+   class GraphFile {
+
+      private static final int MAGIC = 0x45554c47; // "EULG"
+      private static final int VERSION = 2;
+      private static final int HEADER = 20; // bytes
+      private static final long WINDOW = 1L << 30; // bytes mapped at a time
+      private static final int DIRECTED = 1; // flag: the view has no twins.
+      private static final int LABELS = 2; // flag: vertex labels follow the arrays.
+
+      /**
+       * Writes a compact graph to a file, replacing its contents.
+       * @param c -- graph to write.
+       * @param path -- file to write.
+       * @throws IOException if writing fails.
+       */
+      public void save (CompactGraph c, Path path) throws IOException {
+         try (FileChannel ch = FileChannel.open (path, StandardOpenOption.CREATE,
+               StandardOpenOption.READ, StandardOpenOption.WRITE,
+               StandardOpenOption.TRUNCATE_EXISTING)) {
+            long[] labels = c.vertexLabels();
+            ByteBuffer header = ByteBuffer.allocate (HEADER);
+            header.putInt (MAGIC).putInt (VERSION)
+               .putInt ((c.isDirected() ? DIRECTED : 0) | (labels != null ? LABELS : 0))
+               .putInt (c.vertexCount()).putInt (c.arcCount());
+            header.flip();
+            while (header.hasRemaining())
+               ch.write (header);
+            long pos = HEADER;
+            pos = transfer (ch, FileChannel.MapMode.READ_WRITE, pos, c.offsets);
+            pos = transfer (ch, FileChannel.MapMode.READ_WRITE, pos, c.targets);
+            if (c.twin != null)
+               pos = transfer (ch, FileChannel.MapMode.READ_WRITE, pos, c.twin);
+            if (labels != null)
+               transfer (ch, FileChannel.MapMode.READ_WRITE, pos, labels);
+         }
+      }
+
+      /**
+       * Reads a compact graph from a file written by save.
+       * @param path -- file to read.
+       * @return the graph, its id is the file name.
+       * @throws IOException if reading fails or the file is not a graph file.
+       */
+      public CompactGraph load (Path path) throws IOException {
+         try (FileChannel ch = FileChannel.open (path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate (HEADER);
+            while (header.hasRemaining() && ch.read (header) >= 0) {}
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt() != MAGIC)
+               throw new IOException ("Not a graph file: " + path);
+            int version = header.getInt();
+            int flags = header.getInt();
+            if (version < 1 || version > VERSION || (flags & ~(DIRECTED | LABELS)) != 0
+                  || (version == 1 && flags > DIRECTED))
+               throw new IOException ("Not a graph file: " + path);
+            boolean directed = (flags & DIRECTED) != 0;
+            boolean labelled = (flags & LABELS) != 0;
+            int n = header.getInt();
+            int arcs = header.getInt();
+            long size = HEADER + 4L * (n + 1 + (directed ? arcs : 2L * arcs))
+               + (labelled ? 8L * n : 0);
+            if (n < 0 || arcs < 0 || ch.size() != size)
+               throw new IOException ("Graph file " + path + " is damaged.");
+            int[] offsets = new int [n + 1];
+            int[] targets = new int [arcs];
+            int[] twin = directed ? null : new int [arcs];
+            long pos = HEADER;
+            pos = transfer (ch, FileChannel.MapMode.READ_ONLY, pos, offsets);
+            pos = transfer (ch, FileChannel.MapMode.READ_ONLY, pos, targets);
+            if (twin != null)
+               pos = transfer (ch, FileChannel.MapMode.READ_ONLY, pos, twin);
+            if (!consistent (offsets, targets, twin))
+               throw new IOException ("Graph file " + path + " is damaged.");
+            CompactGraph res = new CompactGraph (String.valueOf (path.getFileName()),
+               offsets, targets, twin);
+            if (labelled) {
+               res.labels = new long [n];
+               transfer (ch, FileChannel.MapMode.READ_ONLY, pos, res.labels);
+            }
+            return res;
+         }
+      }
+
+      /**
+       * Checks the arrays read from a file, so a damaged file is reported
+       * instead of failing later with an index out of bounds.
+       * @param offsets -- start from 0, never decrease and end at the arc count.
+       * @param targets -- every target is a vertex.
+       * @param twin -- null, or pairs up distinct arcs with swapped ends.
+       * @return true if the arrays form a compact graph.
+       */
+      private boolean consistent (int[] offsets, int[] targets, int[] twin) {
+         int n = offsets.length - 1;
+         int arcs = targets.length;
+         if (offsets [0] != 0 || offsets [n] != arcs)
+            return false;
+         for (int u = 0; u < n; u++) {
+            if (offsets [u] > offsets [u + 1])
+               return false;
+         }
+         for (int k = 0; k < arcs; k++) {
+            if (targets [k] < 0 || targets [k] >= n)
+               return false;
+         }
+         if (twin == null)
+            return true;
+         for (int u = 0; u < n; u++) {
+            for (int k = offsets [u]; k < offsets [u + 1]; k++) {
+               int r = twin [k];
+               // the reverse of u -> targets [k] runs from targets [k] back to u
+               if (r < 0 || r >= arcs || r == k || twin [r] != k || targets [r] != u)
+                  return false;
+            }
+         }
+         return true;
+      }
+
+      /**
+       * Copies an int array to or from the file through mapped windows.
+       * @return file position after the array.
+       */
+      private long transfer (FileChannel ch, FileChannel.MapMode mode, long pos, int[] a)
+            throws IOException {
+         int done = 0;
+         while (done < a.length) {
+            int len = (int)Math.min (a.length - done, WINDOW / 4);
+            IntBuffer b = ch.map (mode, pos, 4L * len).asIntBuffer();
+            if (mode == FileChannel.MapMode.READ_ONLY)
+               b.get (a, done, len);
+            else
+               b.put (a, done, len);
+            done += len;
+            pos += 4L * len;
+         }
+         return pos;
+      }
+
+      /**
+       * Copies a long array to or from the file through mapped windows.
+       * @return file position after the array.
+       */
+      private long transfer (FileChannel ch, FileChannel.MapMode mode, long pos, long[] a)
+            throws IOException {
+         int done = 0;
+         while (done < a.length) {
+            int len = (int)Math.min (a.length - done, WINDOW / 8);
+            LongBuffer b = ch.map (mode, pos, 8L * len).asLongBuffer();
+            if (mode == FileChannel.MapMode.READ_ONLY)
+               b.get (a, done, len);
+            else
+               b.put (a, done, len);
+            done += len;
+            pos += 8L * len;
+         }
+         return pos;
+      }
+   } // class GraphFile.
+
+
+   /**
+    * Fork-join task that halves the range [lo, hi) until the pieces are at
+    * most grain long and applies the action to every piece.
+    */
+   class RangeTask extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+
+      private final RangeAction action;
+      private final int lo;
+      private final int hi;
+      private final int grain;
+
+      RangeTask (RangeAction a, int lo, int hi, int grain) {
+         action = a;
+         this.lo = lo;
+         this.hi = hi;
+         this.grain = Math.max (grain, 1);
+      }
+
+      @Override
+      protected void compute() {
+         if (hi - lo <= grain) {
+            action.apply (lo, hi);
+            return;
+         }
+         int mid = (lo + hi) >>> 1;
+         invokeAll (new RangeTask (action, lo, mid, grain),
+            new RangeTask (action, mid, hi, grain));
+      }
+   } // class RangeTask.
+
+
+   /**
+    * Frozen compressed sparse row (CSR) view of a graph.
+    * Arcs of vertex u are numbered offsets[u]..offsets[u+1]-1, targets[k] is
+    * the target vertex of arc k and, in an undirected view, twin[k] is the
+    * reverse arc of the same edge. A directed view has no twins, every arc
+    * is an edge of its own.
+    * Vertex and arc ids are looked up only when something is printed.
+    */
+   class CompactGraph {
+
+      private final String id;
+      private final int[] offsets;
+      private final int[] targets;
+      private final int[] twin; // null in a directed view.
+      private final Vertex[] vertex; // null if the view was built without a graph.
+      private final Arc[] arc;
+      private long[] labels; // original vertex ids of a parsed edge list, or null.
+
+      private static final int RULER_GAP = 256; // spacing of ruler edges when ranking a circuit.
+
+      /**
+       * Builds an undirected view from the adjacency lists of a graph.
+       * @param g -- source graph, vertices are numbered by their index.
+       * @throws RuntimeException if some arc has no reverse arc.
+       */
+      CompactGraph (Graph g) {
+         this (g, false);
+      }
+
+      /**
+       * Builds the view from the adjacency lists of a graph, the graph is only read.
+       * @param g -- source graph, vertices are numbered by their index.
+       * @param directed -- true if the arcs are one-way, without twins.
+       * @throws RuntimeException if an undirected view has an arc without a reverse arc.
+       */
+      CompactGraph (Graph g, boolean directed) {
+         id = g.id;
+         int n = g.vertices;
+         vertex = new Vertex [n];
+         offsets = new int [n + 1];
+         for (Vertex v = g.first; v != null; v = v.next) {
+            vertex [v.index] = v;
+            for (Arc a = v.first; a != null; a = a.next)
+               offsets [v.index + 1]++;
+         }
+         for (int u = 0; u < n; u++)
+            offsets [u + 1] += offsets [u];
+         int arcs = offsets [n];
+         arc = new Arc [arcs];
+         targets = new int [arcs];
+         int[] number = directed ? null : new int [g.arcs]; // arc numbers by arc index.
+         for (int u = 0; u < n; u++) {
+            int k = offsets [u];
+            for (Arc a = vertex [u].first; a != null; a = a.next) {
+               if (number != null)
+                  number [a.index] = k;
+               arc [k] = a;
+               targets [k++] = a.target.index;
+            }
+         }
+         if (directed) {
+            twin = null;
+            return;
+         }
+         twin = new int [arcs];
+         for (int k = 0; k < arcs; k++) {
+            if (arc [k].twin == null)
+               throw new RuntimeException ("Arc " + arc [k] + " has no reverse arc, graph "
+                  + id + " is not undirected.");
+            twin [k] = number [arc [k].twin.index];
+         }
+      }
+
+      /**
+       * Builds the view directly from an undirected edge list, no vertex or
+       * arc objects are created. Edge e joins vertices from[e] and to[e].
+       * @param s -- id of the view.
+       * @param n -- number of vertices.
+       * @param from -- first end of each edge.
+       * @param to -- second end of each edge.
+       * @param m -- number of edges used from the arrays.
+       */
+      CompactGraph (String s, int n, int[] from, int[] to, int m) {
+         id = s;
+         vertex = null;
+         arc = null;
+         offsets = new int [n + 1];
+         for (int e = 0; e < m; e++) {
+            offsets [from [e] + 1]++;
+            offsets [to [e] + 1]++;
+         }
+         for (int u = 0; u < n; u++)
+            offsets [u + 1] += offsets [u];
+         targets = new int [2 * m];
+         twin = new int [2 * m];
+         int[] fill = Arrays.copyOf (offsets, n);
+         for (int e = 0; e < m; e++) {
+            int p = fill [from [e]]++;
+            int q = fill [to [e]]++;
+            targets [p] = to [e];
+            targets [q] = from [e];
+            twin [p] = q;
+            twin [q] = p;
+         }
+      }
+
+      /**
+       * Wraps ready CSR arrays, they are not copied.
+       * @param s -- id of the view.
+       * @param offs -- arc ranges of the vertices.
+       * @param tgts -- target vertex of each arc.
+       * @param tw -- twin of each arc, null for a directed view.
+       */
+      CompactGraph (String s, int[] offs, int[] tgts, int[] tw) {
+         id = s;
+         vertex = null;
+         arc = null;
+         offsets = offs;
+         targets = tgts;
+         twin = tw;
+      }
+
+      /** @return number of vertices. */
+      public int vertexCount() {
+         return offsets.length - 1;
+      }
+
+      /** @return number of arcs, two for every edge. */
+      public int arcCount() {
+         return targets.length;
+      }
+
+      /** @return number of edges: arcs in a directed view, arc pairs in an undirected one. */
+      public int edgeCount() {
+         return twin == null ? targets.length : targets.length / 2;
+      }
+
+      /** @return true if this view is directed, its arcs have no twins. */
+      public boolean isDirected() {
+         return twin == null;
+      }
+
+      /**
+       * @param u -- vertex number.
+       * @return degree of the vertex.
+       */
+      public int degree (int u) {
+         return offsets [u + 1] - offsets [u];
+      }
+
+      /**
+       * @param k -- arc number.
+       * @return number of the vertex the arc goes to.
+       */
+      public int target (int k) {
+         return targets [k];
+      }
+
+      /**
+       * Finds the source vertex of an arc by binary search over the offsets.
+       * @param k -- arc number.
+       * @return number of the vertex the arc leaves from.
+       */
+      public int source (int k) {
+         int lo = 0;
+         int hi = vertexCount() - 1;
+         while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets [mid] <= k)
+               lo = mid;
+            else
+               hi = mid - 1;
+         }
+         return lo;
+      }
+
+      /**
+       * @param u -- vertex number.
+       * @return id of the vertex, derived from the number if there is no vertex object.
+       */
+      public String vertexId (int u) {
+         if (vertex != null)
+            return vertex [u].toString();
+         return "v" + (labels != null ? labels [u] : u + 1);
+      }
+
+      /**
+       * @return number in the id "v" + number of every vertex, null if the
+       *    ids are the default ones or some id is not of that form.
+       */
+      long[] vertexLabels() {
+         if (labels != null || vertex == null)
+            return labels;
+         long[] res = new long [vertex.length];
+         for (int u = 0; u < res.length; u++) {
+            Vertex v = vertex [u];
+            if (v.id == null)
+               res [u] = v.label;
+            else if (v.id.matches ("v(0|[1-9][0-9]{0,17})"))
+               res [u] = Long.parseLong (v.id.substring (1));
+            else
+               return null;
+         }
+         return res;
+      }
+
+      /**
+       * @param k -- arc number.
+       * @return id of the arc, derived from its ends if there is no arc object.
+       */
+      public String arcId (int k) {
+         return arc != null ? arc [k].toString()
+            : "a" + vertexId (source (k)) + "_" + vertexId (targets [k]);
+      }
+
+      /**
+       * Checks the Eulerian conditions: degree parity of every vertex (in a
+       * directed view: in-degree equal to out-degree) and connectivity of the
+       * vertices that have arcs. Odd vertices are found from the offsets,
+       * connectivity by a breadth-first search whose queue is linked through a
+       * single int array, so the check takes O(V+E) time and O(V) memory.
+       * In a balanced directed graph every weakly connected part is strongly
+       * connected, so reaching all the vertices with arcs from one of them
+       * proves strong connectivity.
+       * @return report of the odd (unbalanced) vertices and connectivity of this view.
+       */
+      public EulerianCheck checkEulerian() {
+         Metrics.Span span = begin (Phase.CHECK);
+         try {
+            int n = vertexCount();
+            // balance[u]: degree parity, or out-degree minus in-degree in a directed view
+            int[] balance = new int [n];
+            for (int u = 0; u < n; u++) {
+               if (twin == null) {
+                  balance [u] += degree (u);
+                  for (int k = offsets [u]; k < offsets [u + 1]; k++)
+                     balance [targets [k]]--;
+               } else {
+                  balance [u] = degree (u) % 2;
+               }
+            }
+            int odd = 0;
+            int active = 0;
+            int start = -1;
+            for (int u = 0; u < n; u++) {
+               if (balance [u] != 0)
+                  odd++;
+               if (degree (u) > 0 || balance [u] != 0) {
+                  active++;
+                  if (start < 0 && degree (u) > 0)
+                     start = u;
+               }
+            }
+            int[] oddVertices = new int [odd];
+            odd = 0;
+            for (int u = 0; u < n; u++) {
+               if (balance [u] != 0)
+                  oddVertices [odd++] = u;
+            }
+
+            Components components = components();
+            int reached = start >= 0 ? components.size (components.componentOf (start)) : 0;
+            return new EulerianCheck (this, oddVertices, active, reached, components);
+         } finally {
+            end (span, id);
+         }
+      }
+
+      /**
+       * Finds the connected components by breadth first search in O(V+E) time;
+       * a directed view is taken as undirected and its arcs are joined by union-find.
+       * @return components of this view.
+       */
+      public Components components() {
+         int n = vertexCount();
+         if (twin == null) {
+            UnionFind sets = new UnionFind (n);
+            for (int u = 0; u < n; u++) {
+               for (int k = offsets [u]; k < offsets [u + 1]; k++)
+                  sets.union (u, targets [k]);
+            }
+            return sets.components();
+         }
+         int[] root = new int [n];
+         Arrays.fill (root, -1);
+         int[] queue = new int [n];
+         for (int s = 0; s < n; s++) {
+            if (root [s] >= 0)
+               continue;
+            root [s] = s;
+            queue [0] = s;
+            int tail = 1;
+            for (int head = 0; head < tail; head++) {
+               int u = queue [head];
+               for (int k = offsets [u]; k < offsets [u + 1]; k++) {
+                  int w = targets [k];
+                  if (root [w] < 0) {
+                     root [w] = s;
+                     queue [tail++] = w;
+                  }
+               }
+            }
+         }
+         return new Components (root);
+      }
+
+      /**
+       * Finds the connected components like components(), but expands every
+       * large BFS frontier in parallel: the pieces of the frontier claim new
+       * vertices by CAS and append them to the next frontier in blocks. Small
+       * frontiers are expanded on the calling thread. The result does not
+       * depend on the pool size; a directed view is done by components().
+       * @param pool -- pool for the frontier expansion.
+       * @return components of this view.
+       */
+      public Components components (ForkJoinPool pool) {
+         if (twin == null)
+            return components();
+         int n = vertexCount();
+         int grain = 1 << 10;
+         // label[u]: 0 -- not reached, s+1 -- reached from s
+         AtomicIntegerArray label = new AtomicIntegerArray (n);
+         int[] frontier = new int [n];
+         int[] next = new int [n];
+         AtomicInteger nextSize = new AtomicInteger();
+         for (int s = 0; s < n; s++) {
+            if (label.get (s) != 0)
+               continue;
+            label.set (s, s + 1);
+            frontier [0] = s;
+            int size = 1;
+            while (size > 0) {
+               int[] from = frontier;
+               int[] into = next;
+               int mark = s + 1;
+               nextSize.set (0);
+               RangeAction expand = (lo, hi) -> {
+                  int[] found = new int [16];
+                  int f = 0;
+                  for (int i = lo; i < hi; i++) {
+                     int u = from [i];
+                     for (int k = offsets [u]; k < offsets [u + 1]; k++) {
+                        int w = targets [k];
+                        if (label.get (w) == 0 && label.compareAndSet (w, 0, mark)) {
+                           if (f == found.length)
+                              found = Arrays.copyOf (found, 2 * f);
+                           found [f++] = w;
+                        }
+                     }
+                  }
+                  System.arraycopy (found, 0, into, nextSize.getAndAdd (f), f);
+               };
+               if (size < grain)
+                  expand.apply (0, size);
+               else
+                  pool.invoke (new RangeTask (expand, 0, size, grain));
+               size = nextSize.get();
+               frontier = into;
+               next = from;
+            }
+         }
+         int[] root = new int [n];
+         for (int u = 0; u < n; u++)
+            root [u] = label.get (u) - 1;
+         return new Components (root);
+      }
+
+      /**
+       * Checks this view and builds its Eulerian circuit if there is one. The
+       * view is not changed, so any number of threads may do this at once.
+       * @param start -- System.nanoTime() when the run began, for its timing.
+       * @return the run; without a circuit its check tells why.
+       */
+      public CircuitRun findEulerianCircuit (long start) {
+         EulerianCheck check = checkEulerian();
+         int[] circuit = check.hasCircuit() ? eulerianCircuit() : null;
+         return new CircuitRun (this, check, circuit, System.nanoTime() - start);
+      }
+
+      /**
+       * Builds an Eulerian circuit with Hierholzer's algorithm, starting from the
+       * first vertex that has arcs.
+       * @return arc numbers in the order of the circuit, one arc for every edge.
+       * @throws RuntimeException if the circuit does not cover all the edges.
+       */
+      public int[] eulerianCircuit() {
+         int n = vertexCount();
+         int start = 0;
+         while (start < n && degree (start) == 0)
+            start++;
+         if (start == n)
+            throw new RuntimeException ("Graph " + id + " has no edges.");
+         return hierholzer (start);
+      }
+
+      /**
+       * Builds an Eulerian path (open trail). One pass over the degrees finds the
+       * odd vertices; with two of them the trail starts at the first and ends at
+       * the second, with none it is a circuit.
+       * @return arc numbers in the order of the trail, one arc for every edge.
+       * @throws RuntimeException if the number of odd vertices is not 0 or 2,
+       *    or the trail does not cover all the edges.
+       */
+      public int[] eulerianPath() {
+         if (twin == null)
+            throw new RuntimeException ("Eulerian path needs an undirected graph, "
+               + id + " is directed.");
+         int n = vertexCount();
+         int odd = 0;
+         int start = -1;
+         for (int u = 0; u < n; u++) {
+            if (degree (u) % 2 != 0) {
+               if (odd++ == 0)
+                  start = u;
+            } else if (start < 0 && degree (u) > 0) {
+               start = u;
+            }
+         }
+         if (odd != 0 && odd != 2)
+            throw new RuntimeException ("Eulerian path cannot be made, graph " + id
+               + " has " + odd + " odd vertices.");
+         if (start < 0)
+            throw new RuntimeException ("Graph " + id + " has no edges.");
+         if (odd == 0)
+            return eulerianCircuit();
+         return hierholzer (start);
+      }
+
+      /**
+       * Builds a trail with Hierholzer's algorithm and lists it in an array.
+       * If the start vertex is odd, the trail ends at the other odd vertex.
+       * @param start -- first vertex of the trail.
+       * @return arc numbers in the order of the trail.
+       * @throws RuntimeException if the trail does not cover all the edges.
+       */
+      private int[] hierholzer (int start) {
+         int edges = edgeCount();
+         int[] circuit = new int [edges];
+         int[] pos = {edges};
+         hierholzer (start, offsets, targets, twin, k -> circuit [--pos [0]] = k);
+         return circuit;
+      }
+
+      /**
+       * Hierholzer's algorithm. Every vertex keeps a cursor into its own arc range
+       * and the current trail is kept on an explicit int stack, so the trail is built
+       * in O(V+E) time without recursion and without allocating anything per step.
+       * An undirected edge is used up together with both of its twin arcs, in a
+       * directed view the cursors alone make sure every arc is used once.
+       * Arcs are handed over as they are fixed, that is from the end of the trail
+       * backwards.
+       * @param start -- first vertex of the trail.
+       * @param offs -- arc ranges of the vertices.
+       * @param tgts -- target vertex of each arc.
+       * @param tw -- twin of each arc, null if directed.
+       * @param done -- receives the fixed arcs, last arc of the trail first.
+       * @throws RuntimeException if the trail does not cover all the edges.
+       */
+      private void hierholzer (int start, int[] offs, int[] tgts, int[] tw, CircuitSink done) {
+         Metrics.Span span = begin (Phase.CIRCUIT);
+         try {
+            int n = offs.length - 1;
+            int edges = tw == null ? tgts.length : tgts.length / 2;
+            int[] cursor = Arrays.copyOf (offs, n);
+            boolean[] used = tw == null ? null : new boolean [tgts.length];
+            // arcs of the current trail, the vertex on top is the target of the last arc
+            int[] trail = new int [edges + 1];
+            int top = 0;
+            int fixed = 0;
+            int current = start;
+            long visited = 0;
+            int restarts = 0;
+            boolean back = false; // last step fixed an arc
+            while (true) {
+               int c = cursor [current];
+               int end = offs [current + 1];
+               if (tw != null) {
+                  while (c < end && used [c])
+                     c++;
+                  visited += c - cursor [current];
+               }
+               if (c < end) {
+                  if (back)
+                     restarts++;
+                  back = false;
+                  visited++;
+                  cursor [current] = c + 1;
+                  if (tw != null) {
+                     used [c] = true;
+                     used [tw [c]] = true;
+                  }
+                  trail [++top] = c;
+                  current = tgts [c];
+               } else {
+                  cursor [current] = c;
+                  if (top == 0)
+                     break;
+                  done.arc (trail [top--]);
+                  fixed++;
+                  back = true;
+                  current = top == 0 ? start : tgts [trail [top]];
+               }
+            }
+            Metrics m = metrics;
+            if (m != null) {
+               m.arcsVisited.add (visited);
+               m.restarts.add (restarts);
+            }
+            if (fixed != edges)
+               throw new RuntimeException ("Unsuccesful. Circuit covers " + fixed
+                  + " of " + edges + " edges, graph " + id + " is not connected.");
+         } finally {
+            end (span, id);
+         }
+      }
+
+      /**
+       * Streams an Eulerian circuit to a sink in circuit order while it is built,
+       * without keeping the circuit in memory. An undirected circuit is walked
+       * backwards along the twins of the fixed arcs; a directed one is built on
+       * the transposed arcs, so the fixed arcs come out in forward order.
+       * The conditions are checked first, nothing is sent if there is no circuit.
+       * @param sink -- receives the arc numbers in circuit order.
+       * @throws RuntimeException if there is no Eulerian circuit.
+       */
+      public void eulerianCircuit (CircuitSink sink) {
+         EulerianCheck check = checkEulerian();
+         if (!check.hasCircuit())
+            throw new RuntimeException ("Eulerian circuit cannot be made. " + check);
+         int n = vertexCount();
+         int start = 0;
+         while (degree (start) == 0)
+            start++;
+         if (twin != null) {
+            hierholzer (start, offsets, targets, twin, k -> sink.arc (twin [k]));
+            return;
+         }
+         int arcs = arcCount();
+         int[] inOffsets = new int [n + 1];
+         for (int k = 0; k < arcs; k++)
+            inOffsets [targets [k] + 1]++;
+         for (int u = 0; u < n; u++)
+            inOffsets [u + 1] += inOffsets [u];
+         int[] fill = Arrays.copyOf (inOffsets, n);
+         int[] sources = new int [arcs];
+         int[] original = new int [arcs];
+         for (int u = 0; u < n; u++) {
+            for (int k = offsets [u]; k < offsets [u + 1]; k++) {
+               int p = fill [targets [k]]++;
+               sources [p] = u;
+               original [p] = k;
+            }
+         }
+         hierholzer (start, inOffsets, sources, null, k -> sink.arc (original [k]));
+      }
+
+      /**
+       * Writes an Eulerian circuit to a channel while it is built.
+       * @param out -- channel to write to, it is not closed.
+       * @param binary -- true: arc numbers as 4-byte big-endian ints,
+       *    false: arc ids, one per line.
+       * @throws RuntimeException if there is no Eulerian circuit.
+       * @throws UncheckedIOException if writing fails.
+       */
+      public void writeEulerianCircuit (WritableByteChannel out, boolean binary) {
+         CircuitWriter w = new CircuitWriter (this, out, binary);
+         eulerianCircuit (w);
+         w.flush();
+      }
+
+      /**
+       * Builds an Eulerian circuit in parallel by splicing closed subtours.
+       * At every vertex the arcs leaving it are paired (0-1, 2-3, ...); coming
+       * in along an edge and leaving along the paired one splits the edges into
+       * closed subtours. The subtours are labelled concurrently on the pool, a
+       * walk claims edges by compare-and-set and the pieces of one subtour are
+       * joined in a union-find. Then, vertex by vertex, the pairing is switched
+       * wherever two different subtours meet, which splices them into one.
+       * Finally the circuit is ranked from a sparse set of ruler edges, so
+       * every phase except the splicing of the few meeting points runs in parallel.
+       * The result depends only on the graph, not on the pool or thread timing.
+       * @param pool -- pool running the parallel phases.
+       * @return arc numbers in the order of the circuit, one arc for every edge.
+       * @throws RuntimeException if a degree is odd or the circuit does not cover all the edges.
+       */
+      public int[] eulerianCircuit (ForkJoinPool pool) {
+         Metrics.Span span = begin (Phase.CIRCUIT);
+         try {
+            if (twin == null)
+               throw new RuntimeException ("Parallel circuit needs an undirected graph, "
+                  + id + " is directed.");
+            int n = vertexCount();
+            int arcs = arcCount();
+            int start = 0;
+            while (start < n && degree (start) == 0)
+               start++;
+            if (start == n)
+               throw new RuntimeException ("Graph " + id + " has no edges.");
+
+            int[] partner = new int [arcs];
+            pool.invoke (new RangeTask ((lo, hi) -> {
+               for (int u = lo; u < hi; u++) {
+                  if (degree (u) % 2 != 0)
+                     throw new RuntimeException ("Eulerian circuit cannot be made, vertex "
+                        + vertexId (u) + " has odd degree.");
+                  for (int k = offsets [u]; k < offsets [u + 1]; k += 2) {
+                     partner [k] = k + 1;
+                     partner [k + 1] = k;
+                  }
+               }
+            }, 0, n, 1 << 12));
+            spliceSubtours (pool, partner);
+            int[] res = rankCircuit (pool, partner, offsets [start]);
+            return res;
+         } finally {
+            end (span, id);
+         }
+      }
+
+      /**
+       * Labels the subtours of the pairing and switches pairs at the vertices
+       * where different subtours meet until there is one subtour per component.
+       * @param pool -- pool running the labelling.
+       * @param partner -- paired arc of every arc, changed in place.
+       */
+      private void spliceSubtours (ForkJoinPool pool, int[] partner) {
+         int n = vertexCount();
+         int arcs = arcCount();
+         // label[e] of edge slot e = min(arc, twin): 0 -- free, s+1 -- claimed by the walk from s
+         AtomicIntegerArray label = new AtomicIntegerArray (arcs);
+         int grain = 1 << 16;
+         int[][] walks = new int [(arcs + grain - 1) / grain][];
+         pool.invoke (new RangeTask ((lo, hi) -> {
+            for (int c = lo; c < hi; c++)
+               walks [c] = labelSubtours (c * grain, Math.min (arcs, (c + 1) * grain),
+                  partner, label);
+         }, 0, walks.length, 1));
+
+         UnionFind sets = new UnionFind (arcs);
+         int[] parent = sets.parent;
+         // pieces of one subtour meet at the start and at the end of every walk
+         for (int[] w : walks) {
+            for (int i = 1; i < w [0]; i += 2) {
+               int s = w [i];
+               sets.union (subtour (label, s), subtour (label, twin [partner [s]]));
+               sets.union (subtour (label, s), subtour (label, w [i + 1]));
+            }
+         }
+         for (int[] w : walks) {
+            for (int i = 1; i < w [0]; i += 2)
+               parent [w [i]] = sets.find (w [i]);  // every label now points at its root
+         }
+
+         boolean[] meeting = new boolean [n];
+         pool.invoke (new RangeTask ((lo, hi) -> {
+            for (int u = lo; u < hi; u++) {
+               int t0 = -1;
+               for (int k = offsets [u]; k < offsets [u + 1] && !meeting [u]; k += 2) {
+                  int t = parent [subtour (label, k)];
+                  meeting [u] = t0 >= 0 && t != t0;
+                  t0 = t;
+               }
+            }
+         }, 0, n, 1 << 12));
+         for (int u = 0; u < n; u++) {
+            if (!meeting [u])
+               continue;
+            int k0 = offsets [u];
+            for (int k = k0 + 2; k < offsets [u + 1]; k += 2) {
+               int t0 = sets.find (subtour (label, k0));
+               int t = sets.find (subtour (label, k));
+               if (t == t0)
+                  continue;
+               int y0 = partner [k0];
+               int y = partner [k];
+               partner [k0] = y;
+               partner [y] = k0;
+               partner [k] = y0;
+               partner [y0] = k;
+               parent [t] = t0;
+            }
+         }
+      }
+
+      /**
+       * Walks the subtours from every free arc in the range [lo, hi), claiming
+       * the edges one by one until an edge claimed by some other walk is met.
+       * @return number of used entries followed by (start arc, stopping arc) pairs.
+       */
+      private int[] labelSubtours (int lo, int hi, int[] partner, AtomicIntegerArray label) {
+         int[] res = new int [9];
+         res [0] = 1;
+         for (int s = lo; s < hi; s++) {
+            if (!label.compareAndSet (Math.min (s, twin [s]), 0, s + 1))
+               continue;
+            int b = partner [twin [s]];
+            while (label.compareAndSet (Math.min (b, twin [b]), 0, s + 1))
+               b = partner [twin [b]];
+            if (res [0] + 2 > res.length)
+               res = Arrays.copyOf (res, 2 * res.length);
+            res [res [0]++] = s;
+            res [res [0]++] = b;
+         }
+         return res;
+      }
+
+      /** @return union-find element of the walk that claimed the edge of arc k. */
+      private int subtour (AtomicIntegerArray label, int k) {
+         return label.get (Math.min (k, twin [k])) - 1;
+      }
+
+      /**
+       * Lists the circuit given by the pairing, the arc after a is partner[twin[a]].
+       * Every edge slot divisible by RULER_GAP and the edge of the first arc are
+       * rulers. The pieces between rulers are measured in parallel in both
+       * directions, the rulers are put in order sequentially and then the
+       * pieces are written out in parallel at their final positions.
+       * @param first -- first arc of the circuit.
+       * @return arc numbers in the order of the circuit.
+       * @throws RuntimeException if the circuit does not cover all the edges.
+       */
+      private int[] rankCircuit (ForkJoinPool pool, int[] partner, int first) {
+         int edges = edgeCount();
+         int firstSlot = Math.min (first, twin [first]);
+         int count = 0;
+         for (int e = 0; e < arcCount(); e += RULER_GAP) {
+            if (e < twin [e] || e == firstSlot)
+               count++;
+         }
+         int[] ruler = new int [count + 1];
+         count = 0;
+         for (int e = 0; e < arcCount(); e += RULER_GAP) {
+            if (e < twin [e] || e == firstSlot)
+               ruler [count++] = e;
+         }
+         if (firstSlot % RULER_GAP != 0)
+            ruler [count++] = firstSlot;
+         int[] rulers = Arrays.copyOf (ruler, count);
+         Arrays.sort (rulers);
+
+         // for ruler i and direction d (0 -- along the slot arc, 1 -- along its twin):
+         // next ruler * 2 + direction it is entered in, and the number of arcs walked
+         int[] nextRuler = new int [2 * count];
+         int[] length = new int [2 * count];
+         pool.invoke (new RangeTask ((lo, hi) -> {
+            for (int j = 2 * lo; j < 2 * hi; j++) {
+               int a = j % 2 == 0 ? rulers [j / 2] : twin [rulers [j / 2]];
+               int len = 1;
+               a = partner [twin [a]];
+               while (!isRuler (a, firstSlot)) {
+                  a = partner [twin [a]];
+                  len++;
+               }
+               int r = Arrays.binarySearch (rulers, Math.min (a, twin [a]));
+               nextRuler [j] = 2 * r + (a == rulers [r] ? 0 : 1);
+               length [j] = len;
+            }
+         }, 0, count, 64));
+
+         int[] position = new int [2 * count];
+         Arrays.fill (position, -1);
+         int j0 = 2 * Arrays.binarySearch (rulers, firstSlot) + (first == firstSlot ? 0 : 1);
+         int pos = 0;
+         int j = j0;
+         do {
+            position [j] = pos;
+            pos += length [j];
+            j = nextRuler [j];
+         } while (j != j0 && pos < edges);
+         if (j != j0 || pos != edges)
+            throw new RuntimeException ("Unsuccesful. Circuit covers " + Math.min (pos, edges)
+               + " of " + edges + " edges, graph " + id + " is not connected.");
+
+         int[] circuit = new int [edges];
+         pool.invoke (new RangeTask ((lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+               if (position [i] < 0)
+                  continue;
+               int a = i % 2 == 0 ? rulers [i / 2] : twin [rulers [i / 2]];
+               for (int p = position [i]; p < position [i] + length [i]; p++) {
+                  circuit [p] = a;
+                  a = partner [twin [a]];
+               }
+            }
+         }, 0, 2 * count, 64));
+         return circuit;
+      }
+
+      private boolean isRuler (int a, int firstSlot) {
+         int e = Math.min (a, twin [a]);
+         return e % RULER_GAP == 0 || e == firstSlot;
+      }
+
+      @Override
+      public String toString() {
+         String nl = System.getProperty ("line.separator");
+         StringBuilder sb = new StringBuilder (nl);
+         sb.append (id);
+         sb.append (nl);
+         for (int u = 0; u < vertexCount(); u++) {
+            sb.append (vertexId (u));
+            sb.append (" -->");
+            for (int k = offsets [u]; k < offsets [u + 1]; k++) {
+               sb.append (" ");
+               sb.append (arcId (k));
+               sb.append (" (");
+               sb.append (vertexId (u));
+               sb.append ("->");
+               sb.append (vertexId (targets [k]));
+               sb.append (")");
+            }
+            sb.append (nl);
+         }
+         return sb.toString();
+      }
+   } // class CompactGraph.
+
+
+   /**
+    * Result of the Eulerian precheck of a compact graph: the odd vertices and
+    * whether all the vertices with arcs lie in one connected component.
+    */
+   class EulerianCheck {
+
+      private final CompactGraph graph;
+      private final int[] oddVertices;
+      private final int activeVertices; // vertices with at least one arc.
+      private final int reachedVertices; // active vertices reached from the first one.
+      private final Components components;
+
+      EulerianCheck (CompactGraph g, int[] odd, int active, int reached, Components c) {
+         graph = g;
+         oddVertices = odd;
+         activeVertices = active;
+         reachedVertices = reached;
+         components = c;
+      }
+
+      /** @return connected components of the graph, isolated vertices included. */
+      public Components components() {
+         return components;
+      }
+
+      /** @return numbers of the vertices with odd degree, or unbalanced in a directed graph. */
+      public int[] oddVertices() {
+         return oddVertices.clone();
+      }
+
+      /** @return true if there are edges and all of them are in one component. */
+      public boolean isConnected() {
+         return activeVertices > 0 && reachedVertices == activeVertices;
+      }
+
+      /** @return true if the graph has an Eulerian circuit. */
+      public boolean hasCircuit() {
+         return oddVertices.length == 0 && isConnected();
+      }
+
+      /** @return true if the undirected graph has an Eulerian path, open or closed. */
+      public boolean hasPath() {
+         return !graph.isDirected() && (oddVertices.length == 0 || oddVertices.length == 2)
+            && isConnected();
+      }
+
+      /**
+       * Describes why there is no circuit, at most 20 odd vertices are listed.
+       */
+      @Override
+      public String toString() {
+         StringBuilder sb = new StringBuilder ("Graph " + graph.id);
+         if (hasCircuit())
+            return sb.append (" has an Eulerian circuit.").toString();
+         if (activeVertices == 0)
+            return sb.append (" has no edges.").toString();
+         if (oddVertices.length > 0) {
+            sb.append (" has " + oddVertices.length
+               + (graph.isDirected() ? " unbalanced vertices:" : " odd vertices:"));
+            for (int i = 0; i < oddVertices.length && i < 20; i++)
+               sb.append (" " + graph.vertexId (oddVertices [i]));
+            sb.append (oddVertices.length > 20 ? " ..." : ".");
+         }
+         if (!isConnected())
+            sb.append (" Only " + reachedVertices + " of " + activeVertices
+               + " vertices with edges are connected.");
+         return sb.toString();
+      }
+   } // class EulerianCheck.
+
+
+   /**
+    * Connected components of a graph: the component of every vertex and the
+    * component sizes. Components are numbered in the order of their smallest
+    * vertex; a vertex without edges is a component of its own.
+    */
+   class Components {
+
+      private final int[] component;
+      private final int[] sizes;
+
+      /**
+       * @param root -- some vertex of its component for every vertex, the same
+       *    vertex for the whole component.
+       */
+      Components (int[] root) {
+         int n = root.length;
+         int[] number = new int [n];
+         Arrays.fill (number, -1);
+         component = new int [n];
+         int count = 0;
+         for (int u = 0; u < n; u++) {
+            if (number [root [u]] < 0)
+               number [root [u]] = count++;
+            component [u] = number [root [u]];
+         }
+         sizes = new int [count];
+         for (int u = 0; u < n; u++)
+            sizes [component [u]]++;
+      }
+
+      /** @return number of components. */
+      public int count() {
+         return sizes.length;
+      }
+
+      /**
+       * @param u -- vertex number.
+       * @return number of the component of u.
+       */
+      public int componentOf (int u) {
+         return component [u];
+      }
+
+      /**
+       * @param c -- component number.
+       * @return number of vertices in the component.
+       */
+      public int size (int c) {
+         return sizes [c];
+      }
+
+      /** @return number of vertices of every component. */
+      public int[] sizes() {
+         return sizes.clone();
+      }
+
+      /** @return true if u and w are in the same component. */
+      public boolean connected (int u, int w) {
+         return component [u] == component [w];
+      }
+
+      @Override
+      public String toString() {
+         int largest = 0;
+         for (int size : sizes)
+            largest = Math.max (largest, size);
+         return sizes.length + " components, the largest has " + largest + " vertices.";
+      }
+   } // class Components.
+
+
+   /**
+    * Disjoint sets of 0..n-1 for joining vertices as the edges stream by.
+    * The root of a set is its smallest element, found with path halving.
+    */
+   class UnionFind {
+
+      private final int[] parent;
+
+      UnionFind (int n) {
+         parent = new int [n];
+         for (int x = 0; x < n; x++)
+            parent [x] = x;
+      }
+
+      /**
+       * @param x -- element.
+       * @return smallest element of the set of x.
+       */
+      public int find (int x) {
+         while (parent [x] != x) {
+            parent [x] = parent [parent [x]];
+            x = parent [x];
+         }
+         return x;
+      }
+
+      /**
+       * Joins the sets of x and y.
+       * @return true if they were different sets.
+       */
+      public boolean union (int x, int y) {
+         x = find (x);
+         y = find (y);
+         if (x == y)
+            return false;
+         parent [Math.max (x, y)] = Math.min (x, y);
+         return true;
+      }
+
+      /** @return the sets as components. */
+      public Components components() {
+         int[] root = new int [parent.length];
+         for (int x = 0; x < root.length; x++)
+            root [x] = find (x);
+         return new Components (root);
+      }
+   } // class UnionFind.
+
+
+   /**
+    * Bit-packed 0/1 adjacency matrix: every row is a run of longs, so a
+    * 50000 vertex matrix takes about 300 MB instead of 10 GB as int[][].
+    * Degrees, neighbour search and the BFS work a word of 64 columns at a
+    * time. As a graph it is simple and undirected: setEdge sets both bits.
+    */
+   class BitMatrix {
+
+      private final int n;
+      private final int words; // longs per row.
+      private final long[] bits;
+
+      /**
+       * @param n -- number of rows and columns.
+       * @throws IllegalArgumentException if the matrix does not fit one array.
+       */
+      BitMatrix (int n) {
+         this.n = n;
+         words = (n + 63) >>> 6;
+         if (n < 0 || (long)n * words > Integer.MAX_VALUE)
+            throw new IllegalArgumentException ("Too many vertices: " + n);
+         bits = new long [n * words];
+      }
+
+      /** @return number of rows and columns. */
+      public int size() {
+         return n;
+      }
+
+      /** @return true if bit (i, j) is set. */
+      public boolean has (int i, int j) {
+         return (bits [i * words + (j >>> 6)] & (1L << j)) != 0;
+      }
+
+      /** Sets bit (i, j). */
+      public void set (int i, int j) {
+         bits [i * words + (j >>> 6)] |= 1L << j;
+      }
+
+      /** Clears bit (i, j). */
+      public void clear (int i, int j) {
+         bits [i * words + (j >>> 6)] &= ~(1L << j);
+      }
+
+      /**
+       * Sets both bits of the undirected edge i -- j.
+       * @throws IllegalArgumentException for a loop.
+       */
+      public void setEdge (int i, int j) {
+         if (i == j)
+            throw new IllegalArgumentException ("No loops in a bit matrix: " + i);
+         set (i, j);
+         set (j, i);
+      }
+
+      /**
+       * @param i -- row.
+       * @return number of bits set in the row.
+       */
+      public int degree (int i) {
+         int res = 0;
+         for (int w = i * words; w < (i + 1) * words; w++)
+            res += Long.bitCount (bits [w]);
+         return res;
+      }
+
+      /** @return number of undirected edges, half of the bits set. */
+      public long edgeCount() {
+         long res = 0;
+         for (long word : bits)
+            res += Long.bitCount (word);
+         return res / 2;
+      }
+
+      /**
+       * @param i -- row.
+       * @param from -- first column to look at.
+       * @return first column at least from with its bit set, -1 if there is none.
+       */
+      public int nextNeighbour (int i, int from) {
+         return next (bits, i, from);
+      }
+
+      private int next (long[] b, int i, int from) {
+         if (from >= n)
+            return -1;
+         int base = i * words;
+         int w = from >>> 6;
+         long word = b [base + w] & (-1L << from);
+         while (word == 0) {
+            if (++w == words)
+               return -1;
+            word = b [base + w];
+         }
+         return (w << 6) + Long.numberOfTrailingZeros (word);
+      }
+
+      /** @return rows of odd degree. */
+      public int[] oddVertices() {
+         int count = 0;
+         int[] res = new int [n];
+         for (int i = 0; i < n; i++) {
+            if (degree (i) % 2 != 0)
+               res [count++] = i;
+         }
+         return Arrays.copyOf (res, count);
+      }
+
+      /**
+       * Checks by BFS that all the vertices with edges are connected. A row is
+       * expanded a word at a time: the bits not visited yet are the new vertices.
+       * @return true if there are edges and they are all in one component.
+       */
+      public boolean isConnected() {
+         int start = 0;
+         while (start < n && degree (start) == 0)
+            start++;
+         if (start == n)
+            return false;
+         long[] visited = new long [words];
+         int[] queue = new int [n];
+         visited [start >>> 6] |= 1L << start;
+         queue [0] = start;
+         int tail = 1;
+         for (int head = 0; head < tail; head++) {
+            int base = queue [head] * words;
+            for (int w = 0; w < words; w++) {
+               long fresh = bits [base + w] & ~visited [w];
+               visited [w] |= fresh;
+               for (; fresh != 0; fresh &= fresh - 1)
+                  queue [tail++] = (w << 6) + Long.numberOfTrailingZeros (fresh);
+            }
+         }
+         for (int i = 0; i < n; i++) {
+            if ((visited [i >>> 6] & (1L << i)) == 0 && degree (i) > 0)
+               return false;
+         }
+         return true;
+      }
+
+      /**
+       * Builds an Eulerian circuit with Hierholzer's algorithm on a copy of the
+       * bits: an edge is used up by clearing its two bits, and every row keeps
+       * a cursor so the next unused neighbour is found by scanning words.
+       * Takes O(E + n*n/64) time.
+       * @return vertices of the circuit in order, the first one repeated at the end.
+       * @throws RuntimeException if there is no Eulerian circuit.
+       */
+      public int[] eulerianCircuit() {
+         int[] odd = oddVertices();
+         if (odd.length > 0)
+            throw new RuntimeException ("Eulerian circuit cannot be made. The matrix has "
+               + odd.length + " odd vertices.");
+         if (!isConnected())
+            throw new RuntimeException ("Eulerian circuit cannot be made. The matrix has "
+               + (edgeCount() == 0 ? "no edges." : "edges in more than one component."));
+         long m = edgeCount();
+         if (m >= Integer.MAX_VALUE)
+            throw new RuntimeException ("Too many edges for one circuit: " + m);
+         long[] left = bits.clone();
+         int[] cursor = new int [n];
+         int[] stack = new int [(int)m + 1];
+         int[] res = new int [(int)m + 1];
+         int start = 0;
+         while (degree (start) == 0)
+            start++;
+         int top = 0;
+         int r = res.length;
+         stack [top++] = start;
+         while (top > 0) {
+            int u = stack [top - 1];
+            int v = next (left, u, cursor [u]);
+            if (v < 0) {
+               res [--r] = u;
+               top--;
+            } else {
+               cursor [u] = v;
+               left [u * words + (v >>> 6)] &= ~(1L << v);
+               left [v * words + (u >>> 6)] &= ~(1L << u);
+               stack [top++] = v;
+            }
+         }
+         return res;
+      }
+   } // class BitMatrix.
+
+
+   /**
+    * Closed walk over every edge of a graph, edges may be walked more than once.
+    */
+   class PostmanTour {
+
+      private final CompactGraph view;
+      private final int[] route;
+      private final double cost;
+      private final int addedEdges;
+      private final boolean exact;
+
+      PostmanTour (CompactGraph view, int[] route, double cost, int added, boolean exact) {
+         this.view = view;
+         this.route = route;
+         this.cost = cost;
+         addedEdges = added;
+         this.exact = exact;
+      }
+
+      /** @return arc numbers of the view in the order of the walk. */
+      public int[] route() {
+         return route.clone();
+      }
+
+      /** @return arc ids in the order of the walk. */
+      public List<String> arcIds() {
+         List<String> res = new ArrayList<String> (route.length);
+         for (int k : route)
+            res.add (view.arcId (k));
+         return res;
+      }
+
+      /** @return number of arcs in the walk. */
+      public int length() {
+         return route.length;
+      }
+
+      /** @return total weight of the walk. */
+      public double cost() {
+         return cost;
+      }
+
+      /** @return number of edges walked twice or more, counted with repetitions. */
+      public int addedEdges() {
+         return addedEdges;
+      }
+
+      /** @return true if the pairing of the odd vertices is optimal, false if it is greedy. */
+      public boolean isExact() {
+         return exact;
+      }
+   } // class PostmanTour.
+
+
+   /**
+    * Route inspection (Chinese postman) on an undirected compact view with
+    * non-negative arc weights. The odd vertices are paired by shortest paths:
+    * exactly by dynamic programming over subsets when there are at most
+    * EXACT_LIMIT of them, otherwise greedily, every unpaired odd vertex with
+    * the nearest unpaired one found by a Dijkstra search that stops there.
+    * The arcs of the chosen paths are added again as virtual twins of the
+    * originals and the Eulerian circuit of the result is mapped back.
+    */
+   class ChinesePostman {
+
+      private static final int EXACT_LIMIT = 20; // most odd vertices paired exactly.
+
+      private final CompactGraph graph;
+      private final double[] weight;
+      private final double[] dist; // tentative distance, infinite if not touched.
+      private final int[] via; // arc the vertex was reached by, -1 for the source.
+      private final int[] heap;
+      private final int[] place; // position of the vertex in the heap, -1 if not in it.
+      private final int[] touched; // vertices whose dist must be reset.
+      private int heapSize = 0;
+      private int touchedSize = 0;
+
+      /**
+       * @param c -- undirected view.
+       * @param weight -- weight of every arc, null if all are 1.
+       * @throws IllegalArgumentException if a weight is negative.
+       */
+      ChinesePostman (CompactGraph c, double[] weight) {
+         if (c.isDirected())
+            throw new IllegalArgumentException ("Graph " + c.id + " is directed.");
+         graph = c;
+         this.weight = weight != null ? weight : new double [c.arcCount()];
+         if (weight == null)
+            Arrays.fill (this.weight, 1);
+         for (double w : this.weight) {
+            if (!(w >= 0))
+               throw new IllegalArgumentException ("Impossible arc weight: " + w);
+         }
+         int n = c.vertexCount();
+         dist = new double [n];
+         Arrays.fill (dist, Double.POSITIVE_INFINITY);
+         via = new int [n];
+         heap = new int [n];
+         place = new int [n];
+         Arrays.fill (place, -1);
+         touched = new int [n];
+      }
+
+      /**
+       * @return cheapest closed walk over all the edges, or a greedy one for many odd vertices.
+       * @throws RuntimeException if the edges are not connected.
+       */
+      public PostmanTour solve() {
+         EulerianCheck check = graph.checkEulerian();
+         if (!check.isConnected())
+            throw new RuntimeException ("Route cannot be made. " + check);
+         int[] odd = check.oddVertices();
+         boolean exact = odd.length <= EXACT_LIMIT;
+         List<int[]> paths = exact ? exactPairs (odd) : greedyPairs (odd);
+         int added = 0;
+         for (int[] path : paths)
+            added += path.length;
+         int[] extra = new int [added];
+         added = 0;
+         for (int[] path : paths) {
+            System.arraycopy (path, 0, extra, added, path.length);
+            added += path.length;
+         }
+         int[] route = circuitWith (extra);
+         double cost = 0;
+         for (int k : route)
+            cost += weight [k];
+         return new PostmanTour (graph, route, cost, added, exact);
+      }
+
+      /**
+       * Pairs the odd vertices optimally: shortest paths from each of them,
+       * then best[s] is the cheapest pairing of the set s, always pairing its
+       * lowest member first.
+       * @return arcs of the path of every pair.
+       */
+      private List<int[]> exactPairs (int[] odd) {
+         int k = odd.length;
+         double[][] d = new double [k][k];
+         int[][] reachedBy = new int [k][];
+         for (int i = 0; i < k; i++) {
+            search (odd [i], -1, null);
+            for (int j = 0; j < k; j++)
+               d [i][j] = dist [odd [j]];
+            reachedBy [i] = via.clone();
+            reset();
+         }
+         double[] best = new double [1 << k];
+         int[] partner = new int [1 << k];
+         for (int s = 1; s < best.length; s++) {
+            best [s] = Double.POSITIVE_INFINITY;
+            int i = Integer.numberOfTrailingZeros (s);
+            for (int j = i + 1; j < k; j++) {
+               if ((s & (1 << j)) == 0)
+                  continue;
+               double c = d [i][j] + best [s & ~(1 << i) & ~(1 << j)];
+               if (c < best [s]) {
+                  best [s] = c;
+                  partner [s] = j;
+               }
+            }
+         }
+         List<int[]> res = new ArrayList<int[]>();
+         for (int s = best.length - 1; s != 0; ) {
+            int i = Integer.numberOfTrailingZeros (s);
+            int j = partner [s];
+            res.add (path (reachedBy [i], odd [i], odd [j]));
+            s &= ~(1 << i) & ~(1 << j);
+         }
+         return res;
+      }
+
+      /**
+       * Pairs every unpaired odd vertex, in order, with the nearest unpaired one.
+       * @return arcs of the path of every pair.
+       */
+      private List<int[]> greedyPairs (int[] odd) {
+         boolean[] waiting = new boolean [graph.vertexCount()];
+         for (int u : odd)
+            waiting [u] = true;
+         List<int[]> res = new ArrayList<int[]>();
+         for (int u : odd) {
+            if (!waiting [u])
+               continue;
+            waiting [u] = false;
+            int w = search (u, -1, waiting);
+            waiting [w] = false;
+            res.add (path (via, u, w));
+            reset();
+         }
+         return res;
+      }
+
+      /**
+       * Dijkstra's algorithm from a source, over an indexed binary heap.
+       * @param target -- vertex to stop at, -1 to settle all.
+       * @param stop -- vertices to stop at, the first one settled is returned, or null.
+       * @return the vertex it stopped at, -1 if it settled all.
+       */
+      private int search (int source, int target, boolean[] stop) {
+         dist [source] = 0;
+         via [source] = -1;
+         touched [touchedSize++] = source;
+         push (source);
+         while (heapSize > 0) {
+            int u = pop();
+            if (u == target || (stop != null && stop [u]))
+               return u;
+            for (int k = graph.offsets [u]; k < graph.offsets [u + 1]; k++) {
+               int w = graph.targets [k];
+               double d = dist [u] + weight [k];
+               if (d < dist [w]) {
+                  if (dist [w] == Double.POSITIVE_INFINITY)
+                     touched [touchedSize++] = w;
+                  dist [w] = d;
+                  via [w] = k;
+                  if (place [w] < 0)
+                     push (w);
+                  else
+                     up (place [w]);
+               }
+            }
+         }
+         return -1;
+      }
+
+      /** Forgets the last search, in time proportional to what it touched. */
+      private void reset() {
+         for (int i = 0; i < touchedSize; i++) {
+            dist [touched [i]] = Double.POSITIVE_INFINITY;
+            place [touched [i]] = -1;
+         }
+         touchedSize = 0;
+         heapSize = 0;
+      }
+
+      /** @return arcs from u to w, read back from the arcs that reached each vertex. */
+      private int[] path (int[] reachedBy, int u, int w) {
+         int length = 0;
+         for (int v = w; v != u; v = graph.source (reachedBy [v]))
+            length++;
+         int[] res = new int [length];
+         for (int v = w; v != u; v = graph.source (reachedBy [v]))
+            res [--length] = reachedBy [v];
+         return res;
+      }
+
+      private void push (int u) {
+         heap [heapSize] = u;
+         place [u] = heapSize;
+         up (heapSize++);
+      }
+
+      private int pop() {
+         int res = heap [0];
+         place [res] = -1;
+         if (--heapSize > 0) {
+            heap [0] = heap [heapSize];
+            place [heap [0]] = 0;
+            down (0);
+         }
+         return res;
+      }
+
+      private void up (int i) {
+         int u = heap [i];
+         while (i > 0 && dist [heap [(i - 1) / 2]] > dist [u]) {
+            heap [i] = heap [(i - 1) / 2];
+            place [heap [i]] = i;
+            i = (i - 1) / 2;
+         }
+         heap [i] = u;
+         place [u] = i;
+      }
+
+      private void down (int i) {
+         int u = heap [i];
+         while (2 * i + 1 < heapSize) {
+            int c = 2 * i + 1;
+            if (c + 1 < heapSize && dist [heap [c + 1]] < dist [heap [c]])
+               c++;
+            if (dist [heap [c]] >= dist [u])
+               break;
+            heap [i] = heap [c];
+            place [heap [i]] = i;
+            i = c;
+         }
+         heap [i] = u;
+         place [u] = i;
+      }
+
+      /**
+       * Builds the view with a virtual copy of every extra arc and its twin,
+       * finds its Eulerian circuit and maps the arcs back to the original view.
+       * @param extra -- arcs to walk once more.
+       * @return arc numbers of the original view in the order of the walk.
+       */
+      private int[] circuitWith (int[] extra) {
+         int n = graph.vertexCount();
+         int m = graph.arcCount();
+         int[] from = new int [extra.length];
+         int[] offs = new int [n + 1];
+         for (int u = 0; u < n; u++)
+            offs [u + 1] = graph.degree (u);
+         for (int i = 0; i < extra.length; i++) {
+            from [i] = graph.source (extra [i]);
+            offs [from [i] + 1]++;
+            offs [graph.targets [extra [i]] + 1]++;
+         }
+         for (int u = 0; u < n; u++)
+            offs [u + 1] += offs [u];
+         int size = m + 2 * extra.length;
+         int[] tgts = new int [size];
+         int[] tw = new int [size];
+         int[] original = new int [size]; // arc of the original view every arc stands for.
+         int[] cursor = Arrays.copyOf (offs, n);
+         int[] place = new int [m];
+         for (int u = 0; u < n; u++) {
+            for (int k = graph.offsets [u]; k < graph.offsets [u + 1]; k++) {
+               int p = cursor [u]++;
+               place [k] = p;
+               tgts [p] = graph.targets [k];
+               original [p] = k;
+            }
+         }
+         for (int k = 0; k < m; k++)
+            tw [place [k]] = place [graph.twin [k]];
+         for (int i = 0; i < extra.length; i++) {
+            int a = extra [i];
+            int w = graph.targets [a];
+            int p = cursor [from [i]]++;
+            int q = cursor [w]++;
+            tgts [p] = w;
+            tgts [q] = from [i];
+            tw [p] = q;
+            tw [q] = p;
+            original [p] = a;
+            original [q] = graph.twin [a];
+         }
+         int[] circuit = new CompactGraph (graph.id, offs, tgts, tw).eulerianCircuit();
+         for (int i = 0; i < circuit.length; i++)
+            circuit [i] = original [circuit [i]];
+         return circuit;
+      }
+   } // class ChinesePostman.
+
+
+   /**
+    * State of one Eulerian analysis: the check, the circuit, its ends and
+    * timing. Every run has its own, so runs over different graphs at the same
+    * time share nothing. A run never changes after it is made.
+    */
+   class CircuitRun {
+
+      private final String graphId;
+      private final CompactGraph view; // null if the view could not be built or the circuit was tracked.
+      private final Arc[] arcs; // arcs of the circuit in order, null if it was built on a view.
+      private final EulerianCheck check; // null if the run was not checked.
+      private final int[] circuit; // arc numbers of the view in circuit order, null if there is none.
+      private final int edges;
+      private final int setEdges; // edges traversed by the circuit.
+      private final String startVertexId;
+      private final String endVertexId;
+      private final long nanos;
+      private final RuntimeException error; // why the run failed, null if it did not.
+
+      /**
+       * Records a run on a compact view.
+       * @param c -- the view.
+       * @param check -- result of the precheck, or null.
+       * @param circuit -- arc numbers of the view in the order of the circuit or trail, or null.
+       * @param nanos -- time taken.
+       */
+      CircuitRun (CompactGraph c, EulerianCheck check, int[] circuit, long nanos) {
+         graphId = c.id;
+         view = c;
+         this.check = check;
+         this.circuit = circuit;
+         edges = c.edgeCount();
+         setEdges = circuit != null ? circuit.length : 0;
+         startVertexId = setEdges > 0 ? c.vertexId (c.source (circuit [0])) : null;
+         endVertexId = setEdges > 0 ? c.vertexId (c.targets [circuit [setEdges - 1]]) : null;
+         this.nanos = nanos;
+         error = null;
+         arcs = null;
+      }
+
+      /**
+       * Records a circuit that was not built on a view: a tracked circuit or
+       * one built on a bit matrix.
+       * @param graphId -- id of the graph.
+       * @param list -- one arc of every edge in the order of the circuit, not empty.
+       */
+      CircuitRun (String graphId, List<Arc> list) {
+         this.graphId = graphId;
+         view = null;
+         check = null;
+         circuit = null;
+         arcs = list.toArray (new Arc [0]);
+         edges = arcs.length;
+         setEdges = arcs.length;
+         startVertexId = arcs [0].twin.target.toString();
+         endVertexId = arcs [arcs.length - 1].target.toString();
+         nanos = 0;
+         error = null;
+      }
+
+      /**
+       * Records a failed run.
+       * @param graphId -- id of the graph.
+       * @param error -- the reason.
+       * @param nanos -- time taken until the failure.
+       */
+      CircuitRun (String graphId, RuntimeException error, long nanos) {
+         this.graphId = graphId;
+         view = null;
+         check = null;
+         circuit = null;
+         edges = 0;
+         setEdges = 0;
+         startVertexId = null;
+         endVertexId = null;
+         this.nanos = nanos;
+         this.error = error;
+         arcs = null;
+      }
+
+      /** @return id of the analysed graph. */
+      public String graphId() {
+         return graphId;
+      }
+
+      /** @return result of the precheck, null if the run was not checked. */
+      public EulerianCheck check() {
+         return check;
+      }
+
+      /** @return true if the run found a circuit or trail over all the edges. */
+      public boolean hasCircuit() {
+         return error == null && setEdges > 0 && setEdges == edges;
+      }
+
+      /** @return the compact view the circuit was built on, null if there is none. */
+      public CompactGraph view() {
+         return view;
+      }
+
+      /**
+       * @return arc numbers of the view in the order of the circuit, empty if
+       * there is none. A tracked or bit matrix circuit has no view, use arcIds() for it.
+       */
+      public int[] circuit() {
+         return circuit != null ? circuit.clone() : new int [0];
+      }
+
+      /** @return arc ids in the order of the circuit. */
+      public List<String> arcIds() {
+         List<String> res = new ArrayList<String> (setEdges);
+         if (circuit != null) {
+            for (int k : circuit)
+               res.add (view.arcId (k));
+         }
+         if (arcs != null) {
+            for (Arc a : arcs)
+               res.add (a.toString());
+         }
+         return res;
+      }
+
+      /** @return number of edges of the graph. */
+      public int edges() {
+         return edges;
+      }
+
+      /** @return number of edges traversed by the circuit. */
+      public int setEdges() {
+         return setEdges;
+      }
+
+      /** @return id of the first vertex of the circuit, null if there is none. */
+      public String startVertexId() {
+         return startVertexId;
+      }
+
+      /** @return id of the last vertex of the circuit, null if there is none. */
+      public String endVertexId() {
+         return endVertexId;
+      }
+
+      /** @return time taken by the run in nanoseconds. */
+      public long nanos() {
+         return nanos;
+      }
+
+      /** @return why the run failed, null if it did not. */
+      public RuntimeException error() {
+         return error;
+      }
+
+      @Override
+      public String toString() {
+         String res = "Graph " + graphId + ": ";
+         if (error != null)
+            res += error.getMessage();
+         else if (hasCircuit())
+            res += "circuit of " + setEdges + " edges from " + startVertexId + " to " + endVertexId + ".";
+         else
+            res += check;
+         return res + " (" + nanos / 1000 + " us)";
+      }
+   } // class CircuitRun.
+
+
+   /**
+    * Runs the Eulerian check and circuit construction for many graphs at once
+    * on a fixed pool of threads. A graph is turned into its compact view inside
+    * its own task, so every run has private state; a failing graph gives a
+    * failed run instead of stopping the batch.
+    */
+   class EulerianBatch {
+
+      private final int threads;
+
+      /**
+       * @param threads -- number of worker threads, at least 1.
+       */
+      EulerianBatch (int threads) {
+         if (threads < 1)
+            throw new IllegalArgumentException ("Too few threads: " + threads);
+         this.threads = threads;
+      }
+
+      /**
+       * Analyses graphs. The graphs are only read, the same graph may be listed twice.
+       * @param graphs -- graphs to analyse.
+       * @return one run per graph, in the order of the collection.
+       */
+      public List<CircuitRun> analyseGraphs (Collection<Graph> graphs) {
+         List<Callable<CircuitRun>> tasks = new ArrayList<Callable<CircuitRun>>();
+         for (Graph g : graphs)
+            tasks.add (() -> analyse (g.id, () -> g.compact()));
+         return runAll (tasks);
+      }
+
+      /**
+       * Analyses edge lists.
+       * @param lists -- edge lists to analyse, the i-th gets id "L" + i.
+       * @return one run per list, in the order of the collection.
+       */
+      public List<CircuitRun> analyseEdgeLists (Collection<EdgeList> lists) {
+         List<Callable<CircuitRun>> tasks = new ArrayList<Callable<CircuitRun>>();
+         for (EdgeList list : lists) {
+            String id = "L" + tasks.size();
+            tasks.add (() -> analyse (id, () -> list.toCompact (id)));
+         }
+         return runAll (tasks);
+      }
+
+      private CircuitRun analyse (String id, Callable<CompactGraph> source) {
+         long start = System.nanoTime();
+         try {
+            return source.call().findEulerianCircuit (start);
+         } catch (RuntimeException e) {
+            return new CircuitRun (id, e, System.nanoTime() - start);
+         } catch (Exception e) {
+            return new CircuitRun (id, new RuntimeException (e), System.nanoTime() - start);
+         }
+      }
+
+      private List<CircuitRun> runAll (List<Callable<CircuitRun>> tasks) {
+         ExecutorService pool = Executors.newFixedThreadPool (threads);
+         try {
+            List<CircuitRun> res = new ArrayList<CircuitRun> (tasks.size());
+            for (Future<CircuitRun> f : pool.invokeAll (tasks))
+               res.add (f.get());
+            return res;
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException ("Batch interrupted.", e);
+         } catch (ExecutionException e) {
+            throw new RuntimeException (e.getCause());
+         } finally {
+            pool.shutdownNow();
+         }
+      }
+   } // class EulerianBatch.
+
+
+   /**
+    * Eulerian circuit of an undirected graph kept up to date while edges come
+    * and go. The circuit is a ring of arcs, one arc of every edge, linked by
+    * succ and pred arrays indexed by Arc.index; edges that are not on it yet
+    * are loose. An inserted edge is
+    * loose until all degrees are even again, then the loose edges are cut into
+    * closed trails that are spliced into the ring where they touch it. A
+    * removed edge stays on the ring as a ghost until its gap can be bridged by
+    * a loose trail or closes by itself. All this takes time proportional to
+    * the changed edges and the degrees of their ends; only a gap that no
+    * loose trail bridges falls back to rebuilding the whole circuit.
+    */
+   class CircuitTracker {
+
+      private final Graph graph;
+      private final BitSet odd = new BitSet(); // indices of the vertices of odd degree.
+      private final Set<Arc> loose = new LinkedHashSet<Arc>(); // one arc of every edge off the ring.
+      private final Set<Arc> ghosts = new LinkedHashSet<Arc>(); // removed arcs still on the ring.
+      private Arc[] byIndex; // arcs by index, an entry is only read while its arc is on the ring.
+      private int[] succ; // index of the next arc of the ring, -1 if the arc is not on it.
+      private int[] pred; // index of the previous arc of the ring, -1 if the arc is not on it.
+      private Arc head = null; // some arc of the ring, null if the ring is empty.
+      private int length = 0; // arcs on the ring, ghosts included.
+      private int rebuilds = 0;
+
+      /**
+       * Builds the first circuit of a graph. Arcs without a twin are ignored.
+       * @param g -- graph to track.
+       */
+      CircuitTracker (Graph g) {
+         graph = g;
+         int m = Math.max (16, g.arcs);
+         byIndex = new Arc [m];
+         succ = new int [m];
+         pred = new int [m];
+         Arrays.fill (succ, -1);
+         Arrays.fill (pred, -1);
+         // compact() needs a twin for every arc, else all edges are collected one by one
+         CompactGraph c = g.first != null && allTwinned (g) ? g.compact() : null;
+         if (c != null && c.edgeCount() > 0 && c.checkEulerian().hasCircuit()) {
+            int[] circuit = c.eulerianCircuit();
+            List<Arc> ring = new ArrayList<Arc> (circuit.length);
+            for (int k : circuit)
+               ring.add (c.arc [k]);
+            head = ring.get (0);
+            link (null, ring, 0, ring.size(), null);
+            return;
+         }
+         collectEdges();
+         if (odd.isEmpty())
+            spliceLoose (looseAdjacency());
+      }
+
+      /** @return true if every arc of the graph has a twin. */
+      private boolean allTwinned (Graph g) {
+         for (Vertex v = g.first; v != null; v = v.next) {
+            for (Arc a = v.first; a != null; a = a.next) {
+               if (a.twin == null)
+                  return false;
+            }
+         }
+         return true;
+      }
+
+      /** @return true if the ring covers every edge, i.e. the circuit is valid. */
+      public boolean isEulerian() {
+         return odd.isEmpty() && ghosts.isEmpty() && loose.isEmpty();
+      }
+
+      /** @return number of vertices of odd degree. */
+      public int oddVertices() {
+         return odd.cardinality();
+      }
+
+      /** @return number of edges that are not on the circuit. */
+      public int looseEdges() {
+         return loose.size();
+      }
+
+      /** @return how many times a removal could not be repaired locally. */
+      public int rebuilds() {
+         return rebuilds;
+      }
+
+      /**
+       * @return arcs of the circuit in order.
+       * @throws RuntimeException if the graph has no Eulerian circuit at the moment.
+       */
+      public List<Arc> circuit() {
+         if (!isEulerian())
+            throw new RuntimeException ("Eulerian circuit cannot be made. "
+               + odd.cardinality() + " odd vertices, " + loose.size()
+               + " edges off the circuit.");
+         List<Arc> res = new ArrayList<Arc> (length);
+         if (head == null)
+            return res;
+         Arc a = head;
+         do {
+            res.add (a);
+            a = successor (a);
+         } while (a != head);
+         return res;
+      }
+
+      /**
+       * Called by createArc when an arc gets its twin.
+       * @param a -- one arc of the new edge.
+       */
+      void edgeAdded (Arc a) {
+         odd.flip (source (a).index);
+         odd.flip (a.target.index);
+         loose.add (a);
+         if (odd.isEmpty())
+            repair();
+      }
+
+      /**
+       * Called by removeArc after an edge is unlinked from the graph.
+       * @param a -- one arc of the edge.
+       */
+      void edgeRemoved (Arc a) {
+         odd.flip (source (a).index);
+         odd.flip (a.target.index);
+         if (successor (a) != null)
+            ghosts.add (a);
+         else if (successor (a.twin) != null)
+            ghosts.add (a.twin);
+         else {
+            loose.remove (a);
+            loose.remove (a.twin);
+         }
+         if (odd.isEmpty())
+            repair();
+      }
+
+      /**
+       * Bridges the gaps left by ghosts and splices the loose edges into the
+       * ring; all degrees must be even.
+       */
+      private void repair() {
+         Map<Vertex, ArrayDeque<Arc>> adj = looseAdjacency();
+         for (Arc g : new ArrayList<Arc> (ghosts)) {
+            if (!ghosts.contains (g))
+               continue; // gone with an earlier run of ghosts.
+            Arc lo = g;
+            Arc hi = g;
+            while (predecessor (lo) != hi && ghosts.contains (predecessor (lo)))
+               lo = predecessor (lo);
+            while (successor (hi) != lo && ghosts.contains (successor (hi)))
+               hi = successor (hi);
+            Vertex x = source (lo);
+            Vertex y = hi.target;
+            List<Arc> path = x == y ? new ArrayList<Arc>() : loosePath (adj, x, y);
+            if (path == null) {
+               rebuild();
+               return;
+            }
+            replace (lo, hi, path);
+         }
+         spliceLoose (adj);
+      }
+
+      /** Drops the ring and builds it again from all the edges of the graph. */
+      private void rebuild() {
+         rebuilds++;
+         Arrays.fill (succ, -1);
+         Arrays.fill (pred, -1);
+         head = null;
+         length = 0;
+         ghosts.clear();
+         loose.clear();
+         odd.clear();
+         collectEdges();
+         spliceLoose (looseAdjacency());
+      }
+
+      /** Makes every edge of the graph loose and finds the odd vertices. */
+      private void collectEdges() {
+         for (Vertex v = graph.first; v != null; v = v.next) {
+            boolean parity = false;
+            for (Arc a = v.first; a != null; a = a.next) {
+               if (a.twin == null)
+                  continue;
+               parity = !parity;
+               if (!loose.contains (a.twin))
+                  loose.add (a);
+            }
+            if (parity)
+               odd.set (v.index);
+         }
+      }
+
+      /** @return both arcs of every loose edge, listed at their source. */
+      private Map<Vertex, ArrayDeque<Arc>> looseAdjacency() {
+         Map<Vertex, ArrayDeque<Arc>> adj = new HashMap<Vertex, ArrayDeque<Arc>>();
+         for (Arc a : loose) {
+            adj.computeIfAbsent (source (a), v -> new ArrayDeque<Arc>()).add (a);
+            adj.computeIfAbsent (a.target, v -> new ArrayDeque<Arc>()).add (a.twin);
+         }
+         return adj;
+      }
+
+      /**
+       * Finds a shortest path of loose edges by breadth first search.
+       * @return the arcs from x to y, null if there is no such path.
+       */
+      private List<Arc> loosePath (Map<Vertex, ArrayDeque<Arc>> adj, Vertex x, Vertex y) {
+         Map<Vertex, Arc> reachedBy = new HashMap<Vertex, Arc>();
+         ArrayDeque<Vertex> queue = new ArrayDeque<Vertex>();
+         reachedBy.put (x, null);
+         queue.add (x);
+         while (!queue.isEmpty() && !reachedBy.containsKey (y)) {
+            Vertex v = queue.poll();
+            for (Arc a : adj.getOrDefault (v, new ArrayDeque<Arc>())) {
+               if (isLoose (a) && !reachedBy.containsKey (a.target)) {
+                  reachedBy.put (a.target, a);
+                  queue.add (a.target);
+               }
+            }
+         }
+         if (!reachedBy.containsKey (y))
+            return null;
+         List<Arc> path = new ArrayList<Arc>();
+         for (Vertex v = y; v != x; v = source (reachedBy.get (v)))
+            path.add (reachedBy.get (v));
+         Collections.reverse (path);
+         for (Arc a : path)
+            take (a);
+         return path;
+      }
+
+      /**
+       * Replaces the ghosts lo..hi of the ring by a path with the same ends.
+       */
+      private void replace (Arc lo, Arc hi, List<Arc> path) {
+         Arc before = predecessor (lo);
+         Arc after = successor (hi);
+         boolean whole = after == lo;
+         Arc a = lo;
+         while (true) {
+            Arc next = successor (a);
+            ghosts.remove (a);
+            succ [a.index] = -1;
+            pred [a.index] = -1;
+            length--;
+            if (a == hi)
+               break;
+            a = next;
+         }
+         if (whole) {
+            head = null; // a closed run of ghosts was the whole ring.
+            return;
+         }
+         head = before;
+         link (before, path, 0, path.size(), after);
+      }
+
+      /**
+       * Cuts the loose edges into closed trails and splices every trail into
+       * the ring at a vertex they share. Trails that touch no vertex of the
+       * ring stay loose, the graph is not connected then.
+       */
+      private void spliceLoose (Map<Vertex, ArrayDeque<Arc>> adj) {
+         List<List<Arc>> trails = new ArrayList<List<Arc>>();
+         while (!loose.isEmpty())
+            trails.add (closedTrail (adj, source (loose.iterator().next())));
+         for (List<Arc> trail : trails) {
+            if (head == null) {
+               head = trail.get (0);
+               link (null, trail, 0, trail.size(), null);
+               continue;
+            }
+            boolean spliced = false;
+            for (int i = 0; i < trail.size() && !spliced; i++) {
+               Arc e = junction (source (trail.get (i)));
+               if (e == null)
+                  continue;
+               List<Arc> rotated = new ArrayList<Arc> (trail.subList (i, trail.size()));
+               rotated.addAll (trail.subList (0, i));
+               link (predecessor (e), rotated, 0, rotated.size(), e);
+               spliced = true;
+            }
+            if (!spliced) {
+               for (Arc a : trail)
+                  loose.add (a);
+            }
+         }
+      }
+
+      /**
+       * Hierholzer's algorithm on the loose edges reachable from start.
+       * @return closed trail through all of them, its edges are taken.
+       */
+      private List<Arc> closedTrail (Map<Vertex, ArrayDeque<Arc>> adj, Vertex start) {
+         ArrayDeque<Arc> stack = new ArrayDeque<Arc>();
+         List<Arc> res = new ArrayList<Arc>();
+         Vertex v = start;
+         while (true) {
+            Arc a = nextLoose (adj.get (v));
+            if (a != null) {
+               take (a);
+               stack.push (a);
+               v = a.target;
+            } else if (stack.isEmpty()) {
+               break;
+            } else {
+               Arc b = stack.pop();
+               res.add (b);
+               v = source (b);
+            }
+         }
+         Collections.reverse (res);
+         return res;
+      }
+
+      /** @return the arc of the ring leaving v, null if the ring misses v. */
+      private Arc junction (Vertex v) {
+         for (Arc a = v.first; a != null; a = a.next) {
+            if (successor (a) != null)
+               return a;
+            if (a.twin != null && successor (a.twin) != null)
+               return successor (a.twin);
+         }
+         return null;
+      }
+
+      /**
+       * Links the arcs from..to-1 of a list in order between two arcs of the
+       * ring; with null ends the arcs are closed into a ring of their own.
+       */
+      private void link (Arc before, List<Arc> arcs, int from, int to, Arc after) {
+         if (from == to) {
+            if (before != null)
+               join (before, after);
+            return;
+         }
+         Arc prev = before != null ? before : arcs.get (to - 1);
+         for (int k = from; k < to; k++) {
+            Arc a = arcs.get (k);
+            join (prev, a);
+            prev = a;
+         }
+         join (prev, after != null ? after : arcs.get (from));
+         length += to - from;
+      }
+
+      /** Makes b the arc after a on the ring. */
+      private void join (Arc a, Arc b) {
+         fit (Math.max (a.index, b.index));
+         byIndex [a.index] = a;
+         byIndex [b.index] = b;
+         succ [a.index] = b.index;
+         pred [b.index] = a.index;
+      }
+
+      /** Grows the arrays to hold arc index k, arcs created later have larger indices. */
+      private void fit (int k) {
+         if (k < succ.length)
+            return;
+         int old = succ.length;
+         int m = Math.max (k + 1, 2 * old);
+         byIndex = Arrays.copyOf (byIndex, m);
+         succ = Arrays.copyOf (succ, m);
+         pred = Arrays.copyOf (pred, m);
+         Arrays.fill (succ, old, m, -1);
+         Arrays.fill (pred, old, m, -1);
+      }
+
+      /** @return the arc after a on the ring, null if a is not on it. */
+      private Arc successor (Arc a) {
+         int k = a.index < succ.length ? succ [a.index] : -1;
+         return k < 0 ? null : byIndex [k];
+      }
+
+      /** @return the arc before a on the ring, null if a is not on it. */
+      private Arc predecessor (Arc a) {
+         int k = a.index < pred.length ? pred [a.index] : -1;
+         return k < 0 ? null : byIndex [k];
+      }
+
+      private Arc nextLoose (ArrayDeque<Arc> arcs) {
+         while (arcs != null && !arcs.isEmpty()) {
+            Arc a = arcs.poll();
+            if (isLoose (a))
+               return a;
+         }
+         return null;
+      }
+
+      private boolean isLoose (Arc a) {
+         return loose.contains (a) || loose.contains (a.twin);
+      }
+
+      private void take (Arc a) {
+         loose.remove (a);
+         loose.remove (a.twin);
+      }
+
+      private Vertex source (Arc a) {
+         return a.twin.target;
+      }
+   } // class CircuitTracker.
+
+
+   /**
+    * Growable list of undirected edges over vertices 0..n-1, the common
+    * input of the graph builders.
+    */
+   class EdgeList {
+
+      private final int vertices;
+      private int size = 0;
+      private int[] from;
+      private int[] to;
+      private final long[] labels; // original vertex ids of a parsed list, or null.
+
+      EdgeList (int n, int capacity) {
+         vertices = n;
+         from = new int [Math.max (capacity, 4)];
+         to = new int [from.length];
+         labels = null;
+      }
+
+      EdgeList (int[] from, int[] to, int size, long[] labels) {
+         vertices = labels.length;
+         this.from = from;
+         this.to = to;
+         this.size = size;
+         this.labels = labels;
+      }
+
+      /**
+       * Appends the edge u -- w.
+       * @param u -- first end.
+       * @param w -- second end.
+       */
+      void add (int u, int w) {
+         if (size == from.length) {
+            from = Arrays.copyOf (from, 2 * size);
+            to = Arrays.copyOf (to, 2 * size);
+         }
+         from [size] = u;
+         to [size++] = w;
+      }
+
+      /** @return number of vertices. */
+      public int vertexCount() {
+         return vertices;
+      }
+
+      /** @return number of edges. */
+      public int size() {
+         return size;
+      }
+
+      /**
+       * @param u -- vertex number.
+       * @return "v" followed by the original id of u, or by u+1 for a generated list.
+       */
+      public String vertexId (int u) {
+         return "v" + label (u);
+      }
+
+      /**
+       * @param u -- vertex number.
+       * @return original id of u, or u+1 for a generated list.
+       */
+      public long label (int u) {
+         return labels != null ? labels [u] : u + 1;
+      }
+
+      /**
+       * Joins the ends of every edge by union-find, without building the graph.
+       * @return connected components of the listed graph.
+       */
+      public Components components() {
+         UnionFind sets = new UnionFind (vertices);
+         for (int e = 0; e < size; e++)
+            sets.union (from [e], to [e]);
+         return sets.components();
+      }
+
+      /**
+       * Builds a compact view straight from this list.
+       * @param id -- id of the view.
+       * @return frozen compact graph.
+       */
+      public CompactGraph toCompact (String id) {
+         CompactGraph c = new CompactGraph (id, vertices, from, to, size);
+         c.labels = labels;
+         return c;
+      }
+   } // class EdgeList.
+
+
+   /**
+    * Open addressing hash set of non-negative long keys.
+    */
+   class LongHashSet {
+
+      private static final long EMPTY = -1L;
+      private long[] keys;
+      private int size = 0;
+
+      LongHashSet (int expected) {
+         int capacity = 16;
+         while (capacity < 2L * expected)
+            capacity *= 2;
+         keys = new long [capacity];
+         Arrays.fill (keys, EMPTY);
+      }
+
+      /**
+       * Adds a key to the set.
+       * @param key -- non-negative key.
+       * @return true if the key was not in the set before.
+       */
+      boolean add (long key) {
+         if (2 * (size + 1) > keys.length)
+            resize (2 * keys.length);
+         int mask = keys.length - 1;
+         int i = slot (key, mask);
+         while (keys [i] != EMPTY) {
+            if (keys [i] == key)
+               return false;
+            i = (i + 1) & mask;
+         }
+         keys [i] = key;
+         size++;
+         return true;
+      }
+
+      /**
+       * @param key -- non-negative key.
+       * @return true if the key is in the set.
+       */
+      boolean contains (long key) {
+         int mask = keys.length - 1;
+         for (int i = slot (key, mask); keys [i] != EMPTY; i = (i + 1) & mask) {
+            if (keys [i] == key)
+               return true;
+         }
+         return false;
+      }
+
+      private void resize (int capacity) {
+         long[] old = keys;
+         keys = new long [capacity];
+         Arrays.fill (keys, EMPTY);
+         int mask = capacity - 1;
+         for (long key : old) {
+            if (key == EMPTY)
+               continue;
+            int i = slot (key, mask);
+            while (keys [i] != EMPTY)
+               i = (i + 1) & mask;
+            keys [i] = key;
+         }
+      }
+
+      private int slot (long key, int mask) {
+         long h = key * 0x9E3779B97F4A7C15L;
+         return (int)(h ^ (h >>> 32)) & mask;
+      }
+   } // class LongHashSet.
+
+
+   /**
+    * Open addressing map from long ids to dense numbers 0, 1, ... given
+    * in order of first appearance.
+    */
+   class LongIntMap {
+
+      private long[] keys;
+      private int[] values; // -1 marks a free slot.
+      private long[] order; // keys by their number.
+      private int size = 0;
+
+      LongIntMap (int expected) {
+         int capacity = 16;
+         while (capacity < 2L * expected)
+            capacity *= 2;
+         keys = new long [capacity];
+         values = new int [capacity];
+         Arrays.fill (values, -1);
+         order = new long [Math.max (expected, 4)];
+      }
+
+      /**
+       * Looks up a key, numbering it first if it is new.
+       * @param key -- any long.
+       * @return number of the key.
+       */
+      int intern (long key) {
+         int mask = keys.length - 1;
+         int i = slot (key, mask);
+         while (values [i] >= 0) {
+            if (keys [i] == key)
+               return values [i];
+            i = (i + 1) & mask;
+         }
+         if (size == order.length)
+            order = Arrays.copyOf (order, 2 * size);
+         order [size] = key;
+         keys [i] = key;
+         values [i] = size;
+         if (2 * ++size > keys.length)
+            resize (2 * keys.length);
+         return size - 1;
+      }
+
+      /** @return number of keys. */
+      int size() {
+         return size;
+      }
+
+      /** @return the keys, indexed by their numbers. */
+      long[] keys() {
+         return Arrays.copyOf (order, size);
+      }
+
+      private void resize (int capacity) {
+         keys = new long [capacity];
+         values = new int [capacity];
+         Arrays.fill (values, -1);
+         int mask = capacity - 1;
+         for (int v = 0; v < size; v++) {
+            int i = slot (order [v], mask);
+            while (values [i] >= 0)
+               i = (i + 1) & mask;
+            keys [i] = order [v];
+            values [i] = v;
+         }
+      }
+
+      private int slot (long key, int mask) {
+         long h = key * 0x9E3779B97F4A7C15L;
+         return (int)(h ^ (h >>> 32)) & mask;
+      }
+   } // class LongIntMap.
+
+
+   /**
+    * Reads an undirected edge list in SNAP or DIMACS text format, one edge
+    * "u w" per line with ids separated by blanks. Lines starting with '#',
+    * '%', 'c' or 'p' are skipped, a leading 'e' or 'a' tag is dropped and so
+    * is anything after the second id, e.g. a weight. An 'a' line is a directed
+    * arc, as in DIMACS road graphs that list every road both ways: each arc
+    * u w that has an earlier unmatched arc w u is matched with it and gives
+    * no new edge, so the roads are not doubled; an unmatched arc is read as an
+    * edge. Ids are any longs and are numbered densely in order of first
+    * appearance. The input is read
+    * through a fixed buffer, one pass, without a String per token, so only
+    * the edge arrays and the id map grow with the file.
+    */
+   class EdgeListReader {
+
+      private final ReadableByteChannel in;
+      private final ByteBuffer buffer = ByteBuffer.allocate (1 << 16);
+      private int look; // current byte, -1 at the end of input.
+      private long line = 0;
+
+      EdgeListReader (ReadableByteChannel in) {
+         this.in = in;
+         buffer.flip();
+      }
+
+      /**
+       * Reads edges up to the end of input, the channel is not closed.
+       * @return the edges, labelled with the original ids.
+       * @throws IOException if reading fails or a line is malformed.
+       */
+      public EdgeList read() throws IOException {
+         LongIntMap ids = new LongIntMap (1 << 10);
+         int[] from = new int [1 << 10];
+         int[] to = new int [from.length];
+         int size = 0;
+         LongIntMap pairs = null; // unordered ends of the arcs of 'a' lines.
+         int[][] arcs = null; // arcs of every pair by direction, low to high end and back.
+         advance();
+         while (look >= 0) {
+            line++;
+            skipBlanks();
+            if (look == '#' || look == '%' || look == 'c' || look == 'p'
+                  || look == '\n' || look < 0) {
+               skipLine();
+               continue;
+            }
+            boolean arc = look == 'a';
+            if (look == 'e' || look == 'a') {
+               advance();
+               skipBlanks();
+            }
+            int u = ids.intern (number());
+            skipBlanks();
+            int w = ids.intern (number());
+            if (arc) {
+               if (pairs == null) {
+                  pairs = new LongIntMap (1 << 10);
+                  arcs = new int [2][1 << 10];
+               }
+               int p = pairs.intern ((long)Math.min (u, w) << 32 | Math.max (u, w));
+               if (p == arcs [0].length) {
+                  arcs [0] = Arrays.copyOf (arcs [0], 2 * p);
+                  arcs [1] = Arrays.copyOf (arcs [1], 2 * p);
+               }
+               // a loop is its own reverse, its arcs take the two directions in turn
+               int d = u < w || (u == w && arcs [0][p] == arcs [1][p]) ? 0 : 1;
+               if (++arcs [d][p] <= arcs [1 - d][p]) {
+                  skipLine();
+                  continue;  // matched with an earlier reverse arc
+               }
+            }
+            if (size == from.length) {
+               from = Arrays.copyOf (from, 2 * size);
+               to = Arrays.copyOf (to, 2 * size);
+            }
+            from [size] = u;
+            to [size++] = w;
+            skipLine();
+         }
+         return new EdgeList (from, to, size, ids.keys());
+      }
+
+      private void advance() throws IOException {
+         if (!buffer.hasRemaining()) {
+            buffer.clear();
+            int r;
+            do {
+               r = in.read (buffer);
+            } while (r == 0);
+            buffer.flip();
+            if (r < 0) {
+               look = -1;
+               return;
+            }
+         }
+         look = buffer.get() & 0xff;
+      }
+
+      private void skipBlanks() throws IOException {
+         while (look == ' ' || look == '\t' || look == '\r')
+            advance();
+      }
+
+      /** Moves past the end of the current line. */
+      private void skipLine() throws IOException {
+         while (look >= 0 && look != '\n')
+            advance();
+         if (look >= 0)
+            advance();
+      }
+
+      private long number() throws IOException {
+         boolean negative = look == '-';
+         if (negative)
+            advance();
+         if (look < '0' || look > '9')
+            throw new IOException ("Line " + line + ": vertex id expected.");
+         // accumulate negatively, the negative range reaches one further
+         long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+         long x = 0;
+         do {
+            int d = look - '0';
+            if (x < (limit + d) / 10)
+               throw new IOException ("Line " + line + ": vertex id out of range.");
+            x = 10 * x - d;
+            advance();
+         } while (look >= '0' && look <= '9');
+         if (look >= 0 && look != ' ' && look != '\t' && look != '\r' && look != '\n')
+            throw new IOException ("Line " + line + ": malformed vertex id.");
+         return negative ? x : -x;
+      }
+   } // class EdgeListReader.
+
+
+   /**
+    * Builds an undirected graph from many threads at once without locks.
+    * Vertices are registered by long id in a fixed size open addressing table
+    * whose slots are claimed by CAS; every vertex gets the next dense number.
+    * The two arcs of an edge take two adjacent slots of a shared, chunked arc
+    * store by one atomic add, so arc k and k^1 are twins and the source of
+    * arc k is the target of k^1, and the degree of each end is counted
+    * atomically. When all the threads are done, freeze sorts the arcs into a
+    * compact view by their sources in one linear pass.
+    */
+   class ConcurrentGraphBuilder {
+
+      private static final long EMPTY = Long.MIN_VALUE; // free slot of the registry.
+      private static final int CHUNK_BITS = 16; // arcs per chunk of the arc store, as a power of 2.
+
+      private final AtomicLongArray keys; // vertex ids, the registry.
+      private final AtomicIntegerArray numbers; // vertex numbers, -1 until published.
+      private final long[] labels; // vertex ids by number.
+      private final AtomicInteger vertices = new AtomicInteger();
+      private final AtomicIntegerArray degree; // arcs of every vertex.
+      private final AtomicReferenceArray<int[]> chunks; // target of every arc.
+      private final AtomicInteger arcs = new AtomicInteger();
+
+      /**
+       * @param maxVertices -- most vertices the graph may get.
+       */
+      ConcurrentGraphBuilder (int maxVertices) {
+         if (maxVertices < 1 || maxVertices > 1 << 29)
+            throw new IllegalArgumentException ("Impossible number of vertices: " + maxVertices);
+         int capacity = 16;
+         while (capacity < 2 * maxVertices)
+            capacity *= 2;
+         keys = new AtomicLongArray (capacity);
+         numbers = new AtomicIntegerArray (capacity);
+         for (int i = 0; i < capacity; i++) {
+            keys.set (i, EMPTY);
+            numbers.set (i, -1);
+         }
+         labels = new long [maxVertices];
+         degree = new AtomicIntegerArray (maxVertices);
+         chunks = new AtomicReferenceArray<int[]> (1 << (31 - CHUNK_BITS));
+      }
+
+      /**
+       * Finds the number of a vertex, registering the vertex if it is new.
+       * @param id -- any long but Long.MIN_VALUE.
+       * @return dense vertex number.
+       * @throws RuntimeException if there are more vertices than allowed.
+       */
+      public int vertex (long id) {
+         if (id == EMPTY)
+            throw new IllegalArgumentException ("Impossible vertex id: " + id);
+         int mask = keys.length() - 1;
+         long h = id * 0x9E3779B97F4A7C15L;
+         int i = (int)(h ^ (h >>> 32)) & mask;
+         for (int probes = 0; probes <= mask; probes++) {
+            long key = keys.get (i);
+            // a new id past the limit takes no slot; the key is read again in
+            // case the same id was registered since the count was read
+            if (key == EMPTY && vertices.get() >= labels.length && keys.get (i) == EMPTY)
+               break;
+            if (key == EMPTY && keys.compareAndSet (i, EMPTY, id)) {
+               int u = vertices.getAndIncrement();
+               if (u < labels.length)
+                  labels [u] = id;
+               numbers.set (i, u);
+               return checked (u);
+            }
+            if (keys.get (i) == id) {
+               int u;
+               while ((u = numbers.get (i)) < 0)
+                  Thread.onSpinWait(); // the winner of the slot is publishing it.
+               return checked (u);
+            }
+            if (keys.get (i) != EMPTY)
+               i = (i + 1) & mask;
+         }
+         throw new RuntimeException ("Too many vertices: more than " + labels.length);
+      }
+
+      private int checked (int u) {
+         if (u >= labels.length)
+            throw new RuntimeException ("Too many vertices: " + (u + 1));
+         return u;
+      }
+
+      /**
+       * Adds the edge u -- w, registering its ends if they are new.
+       * @param u -- id of the first end.
+       * @param w -- id of the second end.
+       */
+      public void addEdge (long u, long w) {
+         int from = vertex (u);
+         int to = vertex (w);
+         int k = arcs.getAndAdd (2);
+         if (k < 0 || k > Integer.MAX_VALUE - 2)
+            throw new RuntimeException ("Too many arcs.");
+         int[] chunk = chunk (k); // k is even, so k+1 is in the same chunk.
+         int i = k & ((1 << CHUNK_BITS) - 1);
+         chunk [i] = to;
+         chunk [i + 1] = from;
+         degree.incrementAndGet (from);
+         degree.incrementAndGet (to);
+      }
+
+      /** @return number of vertices registered so far. */
+      public int vertexCount() {
+         return Math.min (vertices.get(), labels.length);
+      }
+
+      /** @return number of edges added so far. */
+      public int edgeCount() {
+         return arcs.get() / 2;
+      }
+
+      /**
+       * Freezes the graph into a compact view. Call it only after every thread
+       * has finished adding; arcs of a vertex are listed in the order they
+       * got their slots.
+       * @param id -- id of the view.
+       * @return compact view labelled with the vertex ids.
+       */
+      public CompactGraph freeze (String id) {
+         int n = vertexCount();
+         int m = arcs.get();
+         int[] offs = new int [n + 1];
+         for (int u = 0; u < n; u++)
+            offs [u + 1] = offs [u] + degree.get (u);
+         int[] cursor = Arrays.copyOf (offs, n);
+         int[] tgts = new int [m];
+         int[] tw = new int [m];
+         for (int c = 0; c << CHUNK_BITS < m; c++) {
+            int[] chunk = chunks.get (c);
+            int size = Math.min (1 << CHUNK_BITS, m - (c << CHUNK_BITS));
+            for (int i = 0; i < size; i += 2) {
+               int p = cursor [chunk [i + 1]]++;
+               int q = cursor [chunk [i]]++;
+               tgts [p] = chunk [i];
+               tgts [q] = chunk [i + 1];
+               tw [p] = q;
+               tw [q] = p;
+            }
+         }
+         CompactGraph c = new CompactGraph (id, offs, tgts, tw);
+         c.labels = Arrays.copyOf (labels, n);
+         return c;
+      }
+
+      /** @return chunk of the arc store holding arc k, it is made if missing. */
+      private int[] chunk (int k) {
+         int c = k >>> CHUNK_BITS;
+         int[] res = chunks.get (c);
+         if (res == null) {
+            res = new int [1 << CHUNK_BITS];
+            if (!chunks.compareAndSet (c, null, res))
+               res = chunks.get (c);
+         }
+         return res;
+      }
+   } // class ConcurrentGraphBuilder.
+
+
+   /**
+    * Seeded random graph generator working on edge lists, so the graphs
+    * are not limited by an adjacency matrix. The same seed gives the same graph.
+    * Trees and simple graphs are drawn in chunks of CHUNK edges, every chunk
+    * from its own generator split off the seeded one in chunk order, so the
+    * chunks may be drawn in parallel and the graph does not depend on the pool.
+    */
+   class GraphGenerator {
+
+      private static final int CHUNK = 1 << 14; // edges drawn from one split generator.
+
+      private final SplittableRandom random;
+      private final ForkJoinPool pool; // null: chunks are drawn by the calling thread.
+
+      GraphGenerator (long seed) {
+         this (seed, null);
+      }
+
+      GraphGenerator (long seed, ForkJoinPool pool) {
+         random = new SplittableRandom (seed);
+         this.pool = pool;
+      }
+
+      /**
+       * Creates a random tree, vertex i > 0 is joined to a random vertex before it.
+       * @param n number of vertices
+       * @return edge list of the tree
+       */
+      public EdgeList tree (int n) {
+         if (n <= 0)
+            return new EdgeList (0, 0);
+         EdgeList res = new EdgeList (n, n - 1);
+         addTree (res);
+         return res;
+      }
+
+      /**
+       * Creates a connected simple random graph with n vertices and m edges.
+       * A random tree gives connectivity, the rest of the edges are sampled
+       * in chunks and checked against a hash set of edge keys in slot order;
+       * rejected slots are drawn again in the next round. If more than half of
+       * the possible pairs are needed, the missing pairs are sampled instead
+       * and the rest is listed, so the time is near-linear in n+m.
+       * @param n number of vertices
+       * @param m number of edges
+       * @return edge list of the graph
+       */
+      public EdgeList simpleGraph (int n, int m) {
+         long pairs = (long)n * (n - 1) / 2;
+         if (n <= 0)
+            return new EdgeList (0, 0);
+         if (m < n-1 || m > pairs)
+            throw new IllegalArgumentException
+               ("Impossible number of edges: " + m);
+         EdgeList res = new EdgeList (n, m);
+         addTree (res);
+         long extra = m - (n - 1);
+         boolean dense = extra > (pairs - (n - 1)) / 2;
+         int wanted = (int)(dense ? pairs - m : extra); // pairs to sample
+         LongHashSet taken = new LongHashSet (wanted + n);
+         for (int e = 0; e < n - 1; e++)
+            taken.add ((long)res.from [e] * n + res.to [e]);
+         long[] keys = samplePairs (n, wanted, taken);
+         if (!dense) {
+            for (long key : keys)
+               res.add ((int)(key / n), (int)(key % n));
+            return res;
+         }
+         for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+               if (!taken.contains ((long)i * n + j))
+                  res.add (i, j);
+            }
+         }
+         return res;
+      }
+
+      /**
+       * Appends a random tree on all the vertices of an empty list, edge
+       * i-1 joins vertex i to a vertex j < i.
+       */
+      private void addTree (EdgeList list) {
+         int edges = list.vertexCount() - 1;
+         int[] from = list.from;
+         int[] to = list.to;
+         SplittableRandom[] chunk = split (edges);
+         drawChunks (chunk.length, (lo, hi) -> {
+            for (int c = lo; c < hi; c++) {
+               SplittableRandom r = chunk [c];
+               int end = Math.min (edges, (c + 1) * CHUNK);
+               for (int e = c * CHUNK; e < end; e++) {
+                  from [e] = r.nextInt (e + 1);
+                  to [e] = e + 1;
+               }
+            }
+         });
+         list.size = edges;
+      }
+
+      /**
+       * Samples distinct vertex pairs that are not taken yet, and takes them.
+       * Every round draws the open slots in parallel chunks and then takes
+       * the new keys in slot order, so the result does not depend on timing.
+       * @param n number of vertices
+       * @param count number of pairs
+       * @param taken -- keys min * n + max of the pairs taken already.
+       * @return keys of the new pairs in slot order
+       */
+      private long[] samplePairs (int n, int count, LongHashSet taken) {
+         long[] keys = new long [count];
+         int[] open = new int [count]; // slots still to fill.
+         for (int p = 0; p < count; p++)
+            open [p] = p;
+         int openCount = count;
+         while (openCount > 0) {
+            int[] slots = open;
+            int size = openCount;
+            SplittableRandom[] chunk = split (size);
+            drawChunks (chunk.length, (lo, hi) -> {
+               for (int c = lo; c < hi; c++) {
+                  SplittableRandom r = chunk [c];
+                  int end = Math.min (size, (c + 1) * CHUNK);
+                  for (int q = c * CHUNK; q < end; q++) {
+                     int i = r.nextInt (n);
+                     int j = r.nextInt (n - 1);
+                     if (j >= i)
+                        j++;  // no loops
+                     keys [slots [q]] = (long)Math.min (i, j) * n + Math.max (i, j);
+                  }
+               }
+            });
+            openCount = 0;
+            for (int q = 0; q < size; q++) {
+               if (!taken.add (keys [slots [q]]))
+                  open [openCount++] = slots [q];  // no multiple edges
+            }
+         }
+         return keys;
+      }
+
+      /** @return one generator per chunk of count items, split off in chunk order. */
+      private SplittableRandom[] split (int count) {
+         SplittableRandom[] res = new SplittableRandom [(count + CHUNK - 1) / CHUNK];
+         for (int c = 0; c < res.length; c++)
+            res [c] = random.split();
+         return res;
+      }
+
+      private void drawChunks (int chunks, RangeAction action) {
+         if (pool == null || chunks <= 1)
+            action.apply (0, chunks);
+         else
+            pool.invoke (new RangeTask (action, 0, chunks, 1));
+      }
+
+      /**
+       * Creates a connected simple random graph with n vertices, m edges and
+       * even degrees everywhere, so it always has an Eulerian circuit.
+       * Up to half of the possible pairs, a random base graph gives connectivity:
+       * a cycle through all the vertices, two cycles sharing a vertex for
+       * m = n+1, or four paths between two hubs for m = n+2. The remaining edges
+       * are added as random cycles of length 3..min (8, n) whose edges are all
+       * new. Denser graphs are made as the complement of a random sparse graph,
+       * a graph with even degrees for odd n or with odd degrees for even n.
+       * Such a graph exists exactly if n &gt;= 3 and n &lt;= m &lt;= max, where max is
+       * n(n-1)/2 for odd n and n(n-2)/2 for even n, and for odd n m is not
+       * max-1 or max-2 (an even graph cannot have 1 or 2 edges).
+       * @param n number of vertices
+       * @param m number of edges
+       * @return edge list of the graph
+       * @throws IllegalArgumentException if such a graph does not exist.
+       */
+      public EdgeList eulerianGraph (int n, int m) {
+         long pairs = (long)n * (n - 1) / 2;
+         long max = n % 2 == 1 ? pairs : pairs - n / 2;
+         if (n < 3 || m < n || m > max || (n % 2 == 1 && m > max - 3 && m < max))
+            throw new IllegalArgumentException
+               ("Impossible number of edges for an Eulerian graph: " + m);
+         for (int round = 0; round < 1000; round++) {
+            EdgeList res = 2L * m > pairs ? denseEulerian (n, m) : sparseEulerian (n, m);
+            if (res != null)
+               return res;
+         }
+         throw new RuntimeException ("Random Eulerian graph with " + n
+            + " vertices and " + m + " edges was not found.");
+      }
+
+      /**
+       * One attempt of eulerianGraph for m up to half of the pairs.
+       * @return edge list of the graph, null if the random cycles got stuck.
+       */
+      private EdgeList sparseEulerian (int n, int m) {
+         EdgeList res = new EdgeList (n, m);
+         LongHashSet taken = new LongHashSet (m);
+         int[] perm = permutation (n);
+         if (m == n + 2) {
+            // paths of 1.. vertices from hub perm [0] to hub perm [1], one may be empty
+            int[] length = {1, 1, 1, n == 5 ? 0 : 1};
+            for (int i = n - 2 - (n == 5 ? 3 : 4); i > 0; i--)
+               length [random.nextInt (4)]++;
+            int v = 2;
+            for (int p = 0; p < 4; p++) {
+               int prev = perm [0];
+               for (int i = 0; i < length [p]; i++) {
+                  addEdge (res, taken, prev, perm [v]);
+                  prev = perm [v++];
+               }
+               addEdge (res, taken, prev, perm [1]);
+            }
+            return res;
+         }
+         // two petals through hub perm [0] for m = n+1, else one cycle
+         int split = m == n + 1 ? 3 + random.nextInt (n - 4) : 0; // size of the first petal
+         int prev = perm [0];
+         for (int i = 1; i < n; i++) {
+            addEdge (res, taken, prev, perm [i]);
+            prev = perm [i];
+            if (i + 1 == split) {
+               addEdge (res, taken, prev, perm [0]);
+               prev = perm [0];
+            }
+         }
+         addEdge (res, taken, prev, perm [0]);
+         return addCycles (res, taken, n, m - res.size()) ? res : null;
+      }
+
+      /**
+       * One attempt of eulerianGraph for m over half of the pairs: the missing
+       * pairs are a random perfect matching plus even cycles for even n, where
+       * one or two more pairs are made by turning matching edges into stars,
+       * and only even cycles for odd n. The rest is listed.
+       * @return edge list of the graph, null if the result is not connected or
+       *    the random cycles got stuck.
+       */
+      private EdgeList denseEulerian (int n, int m) {
+         int missing = (int)((long)n * (n - 1) / 2 - m);
+         LongHashSet out = new LongHashSet (missing + n);
+         int cycles = missing;
+         if (n % 2 == 0) {
+            int[] perm = permutation (n);
+            cycles -= n / 2;
+            int matched = 0;
+            if (cycles == 1 || cycles == 2) {
+               // K(1,3) on 4 vertices, or a double star on 6 vertices
+               out.add (edgeKey (perm [0], perm [1], n));
+               out.add (edgeKey (perm [0], perm [2], n));
+               out.add (edgeKey (perm [0], perm [3], n));
+               matched = 4;
+               if (cycles == 2) {
+                  out.add (edgeKey (perm [2], perm [4], n));
+                  out.add (edgeKey (perm [2], perm [5], n));
+                  matched = 6;
+               }
+               cycles = 0;
+            }
+            for (int i = matched; i < n; i += 2)
+               out.add (edgeKey (perm [i], perm [i + 1], n));
+         }
+         if (!addCycles (null, out, n, cycles))
+            return null;
+         EdgeList res = new EdgeList (n, m);
+         UnionFind sets = new UnionFind (n);
+         int joined = 0;
+         for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+               if (!out.contains ((long)i * n + j)) {
+                  res.add (i, j);
+                  if (sets.union (i, j))
+                     joined++;
+               }
+            }
+         }
+         return joined == n - 1 ? res : null;
+      }
+
+      /**
+       * Adds random cycles of length 3..min (8, n) whose edges are all new,
+       * each cycle keeps every degree even.
+       * @param list -- receives the edges, or null if only taken is needed.
+       * @param count -- number of edges, 0 or at least 3.
+       * @return false if no new cycle was found in many attempts.
+       */
+      private boolean addCycles (EdgeList list, LongHashSet taken, int n, int count) {
+         int[] cycle = new int [8];
+         int longest = Math.min (8, n);
+         long attempts = 100L * count + 1000;
+         while (count > 0) {
+            if (attempts-- == 0)
+               return false;
+            int hi = Math.min (longest, count - 3); // longest cycle that leaves 0 or 3+ edges
+            int k = hi < 3 || (count <= longest && random.nextInt (hi - 1) == 0)
+               ? count : 3 + random.nextInt (hi - 2);
+            if (!randomCycle (cycle, k, n, taken))
+               continue;
+            for (int i = 0; i < k; i++) {
+               if (list != null)
+                  list.add (cycle [i], cycle [(i + 1) % k]);
+               taken.add (edgeKey (cycle [i], cycle [(i + 1) % k], n));
+            }
+            count -= k;
+         }
+         return true;
+      }
+
+      /** @return the vertices 0..n-1 in random order. */
+      private int[] permutation (int n) {
+         int[] res = new int [n];
+         for (int i = 0; i < n; i++) {
+            int j = random.nextInt (i + 1);
+            res [i] = res [j];
+            res [j] = i;
+         }
+         return res;
       }
-   } // class Vertex.
-
-
-   class Arc {
-
-      private String id;
-      private Vertex target;
-      private Arc next;
-      private int info = 0;
 
-      Arc (String s, Vertex v, Arc a) {
-         id = s;
-         target = v;
-         next = a;
+      /**
+       * Picks k distinct random vertices such that no edge of the cycle through
+       * them in this order is taken yet.
+       * @return true if such a cycle was found in this attempt.
+       */
+      private boolean randomCycle (int[] cycle, int k, int n, LongHashSet taken) {
+         for (int i = 0; i < k; i++) {
+            int v = random.nextInt (n);
+            for (int j = 0; j < i; j++) {
+               if (cycle [j] == v)
+                  return false;
+            }
+            if (i > 0 && taken.contains (edgeKey (cycle [i - 1], v, n)))
+               return false;
+            cycle [i] = v;
+         }
+         return !taken.contains (edgeKey (cycle [k - 1], cycle [0], n));
       }
 
-      Arc (String s) {
-         this (s, null, null);
+      private void addEdge (EdgeList list, LongHashSet taken, int u, int w) {
+         list.add (u, w);
+         taken.add (edgeKey (u, w, list.vertexCount()));
       }
 
-      @Override
-      public String toString() {
-         return id;
+      private long edgeKey (int u, int w, int n) {
+         return (long)Math.min (u, w) * n + Math.max (u, w);
       }
-   } // class Arc.
+   } // class GraphGenerator.
 
 
    class Graph {
 
       private String id;
       private Vertex first;
-      private int info = 0;
-      
-      private int edges = 0; // shows how many edges the graph has.
-      private int setEdges = 0; // indicates how many edges have been traversed in the Euler circuit.
-      
-      private String startVertexId = null;
-      private String endVertexId = null;
 
+      private int vertices = 0; // number of vertices created, next free vertex index.
+      private int arcs = 0; // number of arcs created, next free arc index.
+      private ArcIndex arcIndex = new ArcIndex();
+      private CircuitTracker tracker = null; // maintained circuit, updated by createArc and removeArc.
+
+      private CircuitRun lastRun = null; // state of the last circuit numbering.
+
+      /**
+       * Creates a graph on a prebuilt vertex chain, numbered as if createVertex
+       * and createArc had built it: the last vertex of the chain and the last
+       * arc of every list are the oldest. The arcs are paired into edges like
+       * createArc does. The chain is taken over, its indices, twins and arc
+       * index links are replaced, so it must not belong to another graph.
+       */
       Graph (String s, Vertex v) {
          id = s;
          first = v;
+         List<Vertex> chain = new ArrayList<Vertex>();
+         for (; v != null; v = v.next)
+            chain.add (v);
+         List<Arc> list = new ArrayList<Arc>();
+         for (int i = chain.size() - 1; i >= 0; i--) {
+            Vertex u = chain.get (i);
+            u.index = vertices++;
+            list.clear();
+            for (Arc a = u.first; a != null; a = a.next)
+               list.add (a);
+            for (int j = list.size() - 1; j >= 0; j--) {
+               Arc a = list.get (j);
+               a.index = arcs++;
+               a.twin = null;
+               a.parallel = null;
+               register (u, a);
+            }
+         }
       }
 
       Graph (String s) {
@@ -117,64 +3907,359 @@ public class GraphTask {
       public Vertex createVertex (String vid) {
          Vertex res = new Vertex (vid);
          res.next = first;
+         res.index = vertices++;
          first = res;
          return res;
       }
 
+      /**
+       * Creates a vertex without a name string, it is printed as "v" + label.
+       * @param label number in the name of the vertex
+       * @return the new vertex
+       */
+      public Vertex createVertex (long label) {
+         Vertex res = createVertex ((String)null);
+         res.label = label;
+         return res;
+      }
+
+      /**
+       * Creates an arc and registers it in the arc index. If a reverse arc
+       * exists without a twin, the oldest such arc is linked with the new one as
+       * one undirected edge. Parallel arcs and loops are allowed, a loop edge
+       * is two arcs v->v linked as twins.
+       * @param aid arc id
+       * @param from source vertex
+       * @param to target vertex
+       * @return the new arc
+       */
       public Arc createArc (String aid, Vertex from, Vertex to) {
          Arc res = new Arc (aid);
+         res.index = arcs++;
          res.next = from.first;
          from.first = res;
          res.target = to;
+         register (from, res);
+         return res;
+      }
+
+      /**
+       * Puts a linked arc in the arc index and pairs it with the oldest reverse
+       * arc that has no twin yet, if there is one.
+       */
+      private void register (Vertex from, Arc a) {
+         a.source = from;
+         Arc rev = arcIndex.takeUnpaired (a.target.index, from.index);
+         if (rev != null) {
+            rev.twin = a;
+            a.twin = rev;
+         }
+         arcIndex.put (from.index, a.target.index, a);
+         if (rev != null && tracker != null)
+            tracker.edgeAdded (a);
+      }
+
+      /**
+       * Removes an arc and its twin, if it has one, so a whole undirected edge
+       * is gone. The counterpart of createArc; takes time proportional to the
+       * degrees of the two ends.
+       * @param from source vertex of the arc
+       * @param a arc to remove
+       * @throws RuntimeException if the arc does not leave from.
+       */
+      public void removeArc (Vertex from, Arc a) {
+         Arc prev = predecessor (from, a);
+         Arc rev = a.twin;
+         unlink (from, prev, a);
+         arcIndex.remove (from.index, a.target.index, a);
+         if (rev != null) {
+            Vertex to = a.target;
+            unlink (to, predecessor (to, rev), rev);
+            arcIndex.remove (to.index, from.index, rev);
+            if (tracker != null)
+               tracker.edgeRemoved (a);
+         }
+      }
+
+      /** @return the arc before a in the list of v, null if a is the first one. */
+      private Arc predecessor (Vertex v, Arc a) {
+         Arc prev = null;
+         for (Arc b = v.first; b != a; b = b.next) {
+            if (b == null)
+               throw new RuntimeException ("Arc " + a + " does not leave vertex " + v + ".");
+            prev = b;
+         }
+         return prev;
+      }
+
+      private void unlink (Vertex v, Arc prev, Arc a) {
+         if (prev == null)
+            v.first = a.next;
+         else
+            prev.next = a.next;
+         a.next = null;
+      }
+
+      /**
+       * Creates an arc without a name string, see createArc (String, Vertex, Vertex).
+       * It is printed as "a" + from + "_" + to.
+       * @param from source vertex
+       * @param to target vertex
+       * @return the new arc
+       */
+      public Arc createArc (Vertex from, Vertex to) {
+         return createArc (null, from, to);
+      }
+
+      /**
+       * Creates an arc with a weight, see createArc (String, Vertex, Vertex).
+       * @param aid arc id
+       * @param from source vertex
+       * @param to target vertex
+       * @param weight length of the arc, not negative
+       * @return the new arc
+       */
+      public Arc createArc (String aid, Vertex from, Vertex to, double weight) {
+         if (!(weight >= 0))
+            throw new IllegalArgumentException ("Impossible arc weight: " + weight);
+         Arc res = createArc (aid, from, to);
+         res.weight = weight;
          return res;
       }
 
+      /**
+       * Finds an arc between two vertices of this graph in constant time.
+       * @param from source vertex
+       * @param to target vertex
+       * @return the first arc from -> to, null if there is none.
+       */
+      public Arc getArc (Vertex from, Vertex to) {
+         Metrics m = metrics;
+         if (m != null)
+            m.lookups.increment();
+         return arcIndex.get (from.index, to.index);
+      }
+
+      /**
+       * Removes all vertices and arcs from this graph.
+       */
+      private void clear() {
+         first = null;
+         vertices = 0;
+         arcs = 0;
+         arcIndex = new ArcIndex();
+         tracker = null;
+      }
+
       /**
        * Create a connected undirected random tree with n vertices.
        * Each new vertex is connected to some random existing vertex.
        * @param n number of vertices added to this graph
        */
       public void createRandomTree (int n) {
+         Metrics.Span span = begin (Phase.GENERATE);
+         try {
+            randomTree (n);
+         } finally {
+            end (span, id);
+         }
+      }
+
+      private void randomTree (int n) {
          if (n <= 0)
             return;
          Vertex[] varray = new Vertex [n];
          for (int i = 0; i < n; i++) {
-            varray [i] = createVertex ("v" + String.valueOf(n-i));
+            varray [i] = createVertex (n - i);
             if (i > 0) {
                int vnr = (int)(Math.random()*i);
-               createArc ("a" + varray [vnr].toString() + "_"
-                  + varray [i].toString(), varray [vnr], varray [i]);
-               createArc ("a" + varray [i].toString() + "_"
-                  + varray [vnr].toString(), varray [i], varray [vnr]);
+               createArc (varray [vnr], varray [i]);
+               createArc (varray [i], varray [vnr]);
             } else {}
          }
       }
 
       /**
-       * Create an adjacency matrix of this graph.
-       * Side effect: corrupts info fields in the graph
+       * Create an adjacency matrix of this graph, rows and columns in the
+       * order of the vertex list.
        * @return adjacency matrix
        */
       public int[][] createAdjMatrix() {
-         info = 0;
-         Vertex v = first;
-         while (v != null) {
-            v.info = info++;
-            v = v.next;
+         Metrics.Span span = begin (Phase.MATRIX);
+         try {
+            int[] row = new int [vertices]; // matrix row by vertex index.
+            int n = 0;
+            Vertex v = first;
+            while (v != null) {
+               row [v.index] = n++;
+               v = v.next;
+            }
+            int[][] res = new int [n][n];
+            v = first;
+            while (v != null) {
+               int i = row [v.index];
+               Arc a = v.first;
+               while (a != null) {
+                  int j = row [a.target.index];
+                  res [i][j]++;
+                  a = a.next;
+               }
+               v = v.next;
+            }
+            return res;
+         } finally {
+            end (span, id);
          }
-         int[][] res = new int [info][info];
-         v = first;
-         while (v != null) {
-            int i = v.info;
-            Arc a = v.first;
-            while (a != null) {
-               int j = a.target.info;
-               res [i][j]++;
-               a = a.next;
+      }
+
+      /**
+       * Creates a bit-packed adjacency matrix of this graph, rows and columns in
+       * the order of the vertex list. Parallel arcs give a single bit.
+       * @return bit matrix, bit (i, j) is set if vertex i has an arc to vertex j
+       */
+      public BitMatrix createBitMatrix() {
+         Metrics.Span span = begin (Phase.MATRIX);
+         try {
+            int[] row = new int [vertices]; // matrix row by vertex index.
+            int n = 0;
+            for (Vertex v = first; v != null; v = v.next)
+               row [v.index] = n++;
+            BitMatrix res = new BitMatrix (n);
+            for (Vertex v = first; v != null; v = v.next) {
+               for (Arc a = v.first; a != null; a = a.next)
+                  res.set (row [v.index], row [a.target.index]);
             }
-            v = v.next;
+            return res;
+         } finally {
+            end (span, id);
+         }
+      }
+
+      /**
+       * Creates a connected simple random graph from a seed, without the
+       * vertex limit of the adjacency matrix. Replaces the contents of this graph.
+       * @param n number of vertices
+       * @param m number of edges
+       * @param seed random seed, the same seed gives the same graph
+       */
+      public void createRandomSimpleGraph (int n, int m, long seed) {
+         createRandomSimpleGraph (n, m, seed, null);
+      }
+
+      /**
+       * Creates a connected simple random graph from a seed, drawing the edges
+       * in parallel; the graph is the same for any pool. Replaces the contents
+       * of this graph.
+       * @param n number of vertices
+       * @param m number of edges
+       * @param seed random seed, the same seed gives the same graph
+       * @param pool pool drawing the edges, null to draw them on this thread
+       */
+      public void createRandomSimpleGraph (int n, int m, long seed, ForkJoinPool pool) {
+         Metrics.Span span = begin (Phase.GENERATE);
+         try {
+            clear();
+            addEdges (new GraphGenerator (seed, pool).simpleGraph (n, m));
+         } finally {
+            end (span, id);
+         }
+      }
+
+      /**
+       * Creates a random tree from a seed, vertex v(i+1) is joined to a random
+       * vertex among v1..vi. Replaces the contents of this graph.
+       * @param n number of vertices
+       * @param seed random seed, the same seed gives the same tree
+       */
+      public void createRandomTree (int n, long seed) {
+         Metrics.Span span = begin (Phase.GENERATE);
+         try {
+            clear();
+            addEdges (new GraphGenerator (seed).tree (n));
+         } finally {
+            end (span, id);
+         }
+      }
+
+      /**
+       * Creates a connected random graph with all degrees even from a seed,
+       * it always has an Eulerian circuit. Replaces the contents of this graph.
+       * @param n number of vertices
+       * @param m number of edges
+       * @param seed random seed, the same seed gives the same graph
+       */
+      public void createRandomEulerianGraph (int n, int m, long seed) {
+         Metrics.Span span = begin (Phase.GENERATE);
+         try {
+            clear();
+            addEdges (new GraphGenerator (seed).eulerianGraph (n, m));
+         } finally {
+            end (span, id);
+         }
+      }
+
+      /**
+       * Writes this graph to a binary graph file. Vertex ids of the form
+       * v + number are stored as labels, other ids are lost.
+       * @param path file to write
+       * @throws IOException if writing fails.
+       */
+      public void save (Path path) throws IOException {
+         new GraphFile().save (compact(), path);
+      }
+
+      /**
+       * Replaces the contents of this graph with a binary graph file. Vertex u
+       * of the file gets index u and the label stored for it, or v(u+1) if the
+       * file has no labels, so a saved graph is loaded with the same vertex
+       * ids, indices and list order. Arc ids are made from the vertex ids.
+       * @param path file to read
+       * @throws IOException if reading fails.
+       */
+      public void load (Path path) throws IOException {
+         CompactGraph c = new GraphFile().load (path);
+         clear();
+         int n = c.vertexCount();
+         Vertex[] vert = new Vertex [n];
+         for (int u = 0; u < n; u++)
+            vert [u] = createVertex (c.labels != null ? c.labels [u] : u + 1);
+         for (int u = 0; u < n; u++) {
+            // arcs are pushed to the front of the list, so the file order is kept
+            for (int k = c.offsets [u + 1] - 1; k >= c.offsets [u]; k--)
+               createArc (vert [u], vert [c.targets [k]]);
+         }
+      }
+
+      /**
+       * Replaces the contents of this graph with a text edge list, see EdgeListReader.
+       * @param path file to read
+       * @throws IOException if reading fails or a line is malformed.
+       */
+      public void readEdgeList (Path path) throws IOException {
+         EdgeList list;
+         try (FileChannel ch = FileChannel.open (path, StandardOpenOption.READ)) {
+            list = new EdgeListReader (ch).read();
+         }
+         clear();
+         addEdges (list);
+      }
+
+      /**
+       * Adds the vertices and both arcs of every edge of an edge list.
+       * Edge list vertex u becomes vertex list.vertexId (u), listed in that order.
+       * @param list edges to add
+       */
+      public void addEdges (EdgeList list) {
+         int n = list.vertexCount();
+         Vertex[] vert = new Vertex [n];
+         for (int u = n - 1; u >= 0; u--)
+            vert [u] = createVertex (list.label (u));
+         for (int e = 0; e < list.size(); e++) {
+            Vertex vi = vert [list.from [e]];
+            Vertex vj = vert [list.to [e]];
+            createArc (vi, vj);
+            createArc (vj, vi);
          }
-         return res;
       }
 
       /**
@@ -186,140 +4271,305 @@ public class GraphTask {
       public void createRandomSimpleGraph (int n, int m) {
          if (n <= 0)
             return;
-         if (n > 2500)
+         if (n > 50000)
             throw new IllegalArgumentException ("Too many vertices: " + n);
-         if (m < n-1 || m > n*(n-1)/2)
+         if (m < n-1 || m > (long)n*(n-1)/2)
             throw new IllegalArgumentException 
                ("Impossible number of edges: " + m);
-         first = null;
-         createRandomTree (n);       // n-1 edges created here
-         Vertex[] vert = new Vertex [n];
-         Vertex v = first;
-         int c = 0;
-         while (v != null) {
-            vert[c++] = v;
-            v = v.next;
+         Metrics.Span span = begin (Phase.GENERATE);
+         try {
+            clear();
+            randomTree (n);       // n-1 edges created here
+            Vertex[] vert = new Vertex [n];
+            Vertex v = first;
+            int c = 0;
+            while (v != null) {
+               vert[c++] = v;
+               v = v.next;
+            }
+            BitMatrix connected = createBitMatrix();
+            int edgeCount = m - n + 1;  // remaining edges
+            while (edgeCount > 0) {
+               int i = (int)(Math.random()*n);  // random source
+               int j = (int)(Math.random()*n);  // random target
+               if (i==j) 
+                  continue;  // no loops
+               if (connected.has (i, j))
+                  continue;  // no multiple edges
+               Vertex vi = vert [i];
+               Vertex vj = vert [j];
+               createArc (vi, vj);
+               createArc (vj, vi);
+               connected.setEdge (i, j);
+               edgeCount--;  // a new edge happily created
+            }
+         } finally {
+            end (span, id);
          }
-         int[][] connected = createAdjMatrix();
-         int edgeCount = m - n + 1;  // remaining edges
-         while (edgeCount > 0) {
-            int i = (int)(Math.random()*n);  // random source
-            int j = (int)(Math.random()*n);  // random target
-            if (i==j) 
-               continue;  // no loops
-            if (connected [i][j] != 0 || connected [j][i] != 0) 
-               continue;  // no multiple edges
-            Vertex vi = vert [i];
-            Vertex vj = vert [j];
-            createArc ("a" + vi.toString() + "_" + vj.toString(), vi, vj);
-            connected [i][j] = 1;
-            createArc ("a" + vj.toString() + "_" + vi.toString(), vj, vi);
-            connected [j][i] = 1;
-            edgeCount--;  // a new edge happily created
-         }
-         
-         this.edges = m;
       }
       
+      /**
+       * Creates a compact (CSR) view of this graph. Arcs of every vertex are
+       * copied in list order, twins are taken from the links made by createArc.
+       * @return frozen compact view of this graph
+       * @throws RuntimeException if some arc has no reverse arc.
+       */
+      public CompactGraph compact() {
+         Metrics.Span span = begin (Phase.COMPACT);
+         try {
+            CompactGraph res = new CompactGraph (this);
+            return res;
+         } finally {
+            end (span, id);
+         }
+      }
+
+      /**
+       * Creates a directed compact view of this graph, every arc is one-way
+       * and twins are ignored.
+       * @return frozen directed compact view of this graph
+       */
+      public CompactGraph compactDirected() {
+         Metrics.Span span = begin (Phase.COMPACT);
+         try {
+            CompactGraph res = new CompactGraph (this, true);
+            return res;
+         } finally {
+            end (span, id);
+         }
+      }
+
+      /**
+       * Checks degree parity and connectivity of this graph in O(V+E) time.
+       * @return report of the odd vertices and connectivity.
+       */
+      public EulerianCheck checkEulerian() {
+         return compact().checkEulerian();
+      }
+
+      /**
+       * Finds an Eulerian circuit without changing this graph, so other threads
+       * may read the graph or run this at the same time.
+       * @return the run; without a circuit its check tells why
+       */
+      public CircuitRun findEulerianCircuit() {
+         long start = System.nanoTime();
+         return compact().findEulerianCircuit (start);
+      }
+
+      /**
+       * Finds the connected components of this graph in O(V+E) time; arcs
+       * without twins are taken as undirected.
+       * @return components, vertices are numbered by their index
+       */
+      public Components components() {
+         return compactDirected().components();
+      }
+
+      /**
+       * Finds a cheapest closed walk that covers every edge (route inspection),
+       * walking some edges again where the graph has odd vertices. The walk
+       * is optimal for at most 20 odd vertices and greedy for more.
+       * @return the walk and its cost by arc weights
+       * @throws RuntimeException if the graph is empty or not connected.
+       */
+      public PostmanTour chinesePostman() {
+         if (this.first == null)
+            throw new RuntimeException ("Graph is empty.");
+         CompactGraph c = compact();
+         double[] weight = new double [c.arcCount()];
+         for (int k = 0; k < weight.length; k++)
+            weight [k] = c.arc [k].weight;
+         return new ChinesePostman (c, weight).solve();
+      }
+
       /**
        * Checks if this graph meets the requirements of an Eulerian circuit.
+       * The degrees and connectivity are checked by the compact view in O(V+E) time.
+       * Parallel edges and loops are allowed, a loop adds 2 to the degree.
+       * @param c -- compact view of this graph.
        * @throws RuntimeException if this graph doesn't meet the requirements.
        * @throws RunTimeException if the graph is "empty" -- no vertices, no edges.
        */
-      private void hasEulerianCircuit() {
-    	  if (this.first == null) {
-    		  throw new RuntimeException("Graph is empty.");
-    	  }
-    	  
-    	  int x;
-    	  int[][] adjMatrix = createAdjMatrix();
-    	  
-    	  for (int i = 0; i < adjMatrix.length; i++) {
-    		  x = 0;
-    		  
-    		  for (int j = 0; j < adjMatrix[i].length; j++) {
-    			  if (adjMatrix [i][j] == 1) {
-    				  x++;
-    			  } else if (adjMatrix [i][j] == 2) { // checks for loops in graph, just in case.
-    				  throw new RuntimeException ("Eulerian circuit cannot be made for graph: " + this);
-    			  }
-    		  }
-    		  
-    		  if (x % 2 != 0) {
-    			  throw new RuntimeException ("Eulerian circuit cannot be made for graph: " + this);
-    		  }
-    	  }
+      private void hasEulerianCircuit (CompactGraph c) {
+         if (this.first == null) {
+            throw new RuntimeException("Graph is empty.");
+         }
+         EulerianCheck check = c.checkEulerian();
+         if (!check.hasCircuit()) {
+            throw new RuntimeException ("Eulerian circuit cannot be made. " + check);
+         }
       }// hasEulerianCircuit();
-      
+
+      /**
+       * Checks if this graph meets the requirements of an Eulerian path:
+       * connected, with zero or two odd vertices.
+       * @param c -- compact view of this graph.
+       * @throws RuntimeException if this graph doesn't meet the requirements.
+       */
+      private void hasEulerianPath (CompactGraph c) {
+         if (this.first == null) {
+            throw new RuntimeException("Graph is empty.");
+         }
+         EulerianCheck check = c.checkEulerian();
+         if (!check.hasPath()) {
+            throw new RuntimeException ("Eulerian path cannot be made. " + check);
+         }
+      }
+
       /**
        * Sets an Eulerian circuit for this graph by numbering the arcs according to the circuit's order.
+       * The circuit is built on the compact view, only the traversed arc of each edge gets a number.
+       * If the circuit is tracked, the tracked one is numbered instead.
+       * Side effect: arc info fields are overwritten by the numbering
+       * @throws RuntimeException if the circuit does not cover all the edges.
        */
       public void setEulerianCircuit() {
-    	  this.hasEulerianCircuit();
-    	  
-    	  int[][] matrix = this.createAdjMatrix();
-    	  int vertexInfo = this.first.info;
-    	  Vertex v = this.first;
-    	  this.startVertexId = v.id;
-    	  int counter = 1;
-    	  
-    	  this.traverseMatrix (matrix, vertexInfo, counter);
-    	  
-    	  while (setEdges != this.edges) {
-    		  v = v.next;
-    		  this.startVertexId = v.id;
-    		  this.resetECircuit();
-    		  matrix = this.createAdjMatrix();
-    		  this.traverseMatrix (matrix, ++vertexInfo, counter);
-    	  }
-    	  
-    	  if (setEdges == this.edges && this.startVertexId.equals(this.endVertexId)) {
-    		  return;
-    	  } else {
-    		  throw new RuntimeException("Unsuccesful.");
-    	  }
+         if (tracker != null) {
+            numberTrackedCircuit();
+            return;
+         }
+         CompactGraph c = this.compact();
+         this.hasEulerianCircuit (c);
+         numberCircuit (c, c.eulerianCircuit());
       }
-      
+
       /**
-       * Goes through an adjacency matrix to make an Eulerian circuit for the graph.
-       * @param m -- a matrix showing which routes in the graph are open.
-       * @param i -- the info property of a vertex.
-       * @param counter -- indicates which arc is being traversed right now.
-       */
-      private void traverseMatrix (int[][] m, int i, int counter) {
-    	  for (int j = 0; j < m[i].length; j++) {
-    		  if (m [i][j] == 1) {
-    			  m [i][j] = 2; // sets the arc to an "used" state.
-    			  m [j][i] = 0; // "deletes" the arc. Equivalent to setting it to an "used" state.
-    			  
-    			  String si = String.valueOf(i+1);
-    			  String sj = String.valueOf(j+1);
-    			  
-    			  String arcId = "av" + si + "_v" + sj;
-    			  
-    			  Arc arc = this.getArcByName (arcId);
-    			  
-    			  arc.info = counter;
-    			  
-    			  if (counter <= this.edges) {
-    				  this.setEdges++;
-        			  traverseMatrix (m, j, ++counter);
-    			  }
+       * Sets an Eulerian circuit for this graph like setEulerianCircuit(), but
+       * builds it by splicing subtours found in parallel on the given pool.
+       * The numbering is the same for the same graph whatever the pool size.
+       * Side effect: arc info fields are overwritten by the numbering
+       * @param pool fork-join pool for the parallel phases
+       * @throws RuntimeException if the circuit does not cover all the edges.
+       */
+      public void setEulerianCircuit (ForkJoinPool pool) {
+         CompactGraph c = this.compact();
+         this.hasEulerianCircuit (c);
+         numberCircuit (c, c.eulerianCircuit (pool));
+      }
 
-    			  if (counter == this.edges+1) {
-    				  this.endVertexId = "v"+sj;
-    			  }
-    			  
-    			  return;
-    		  }
-    	  }
+      /**
+       * Sets a directed Eulerian circuit for this graph: every arc is one-way and
+       * gets its own number. Requires in-degree equal to out-degree at every vertex
+       * and strong connectivity, checked in O(V+E) time; parallel arcs and loops
+       * are allowed.
+       * Side effect: arc info fields are overwritten by the numbering
+       * @throws RuntimeException if there is no directed Eulerian circuit.
+       */
+      public void setDirectedEulerianCircuit() {
+         if (this.first == null)
+            throw new RuntimeException ("Graph is empty.");
+         CompactGraph c = this.compactDirected();
+         EulerianCheck check = c.checkEulerian();
+         if (!check.hasCircuit())
+            throw new RuntimeException ("Eulerian circuit cannot be made. " + check);
+         numberCircuit (c, c.eulerianCircuit());
       }
-      
+
+      /**
+       * Sets an Eulerian circuit for this graph like setEulerianCircuit(), but
+       * builds it on the bit matrix of the graph. Worth it for dense graphs:
+       * it takes O(E + n*n/64) time and n*n/8 bytes, with no compact view.
+       * The vertices of the circuit are mapped back to arcs through the arc
+       * index, so only a simple graph can be numbered this way.
+       * Side effect: arc info fields are overwritten by the numbering
+       * @throws RuntimeException if the graph is not simple and undirected,
+       * or has no Eulerian circuit.
+       */
+      public void setDenseEulerianCircuit() {
+         if (this.first == null)
+            throw new RuntimeException ("Graph is empty.");
+         Vertex[] byRow = new Vertex [vertices]; // vertex by matrix row, rows in list order.
+         int n = 0;
+         for (Vertex v = first; v != null; v = v.next) {
+            byRow [n++] = v;
+            for (Arc a = v.first; a != null; a = a.next) {
+               if (a.twin == null || a.target == v || a.parallel != null)
+                  throw new RuntimeException ("Graph " + id + " is not simple and undirected: arc " + a + ".");
+            }
+         }
+         int[] rows = createBitMatrix().eulerianCircuit();
+         List<Arc> circuit = new ArrayList<Arc> (rows.length - 1);
+         for (int k = 0; k + 1 < rows.length; k++)
+            circuit.add (getArc (byRow [rows [k]], byRow [rows [k + 1]]));
+         this.resetECircuit();
+         for (int k = 0; k < circuit.size(); k++)
+            circuit.get (k).info = k + 1;
+         this.lastRun = new CircuitRun (id, circuit);
+      }
+
+      /**
+       * Writes an Eulerian circuit of this graph to a channel as it is built,
+       * one arc id per line, without numbering the arcs.
+       * @param out channel to write to, it is not closed
+       * @throws RuntimeException if there is no Eulerian circuit.
+       */
+      public void writeEulerianCircuit (WritableByteChannel out) {
+         if (this.first == null)
+            throw new RuntimeException ("Graph is empty.");
+         compact().writeEulerianCircuit (out, false);
+      }
+
+      /**
+       * Sets an Eulerian path for this graph by numbering the arcs in the order of
+       * the trail. If two vertices are odd, the trail runs from one to the other.
+       * Side effect: arc info fields are overwritten by the numbering
+       * @throws RuntimeException if there is no Eulerian path.
+       */
+      public void setEulerianPath() {
+         CompactGraph c = this.compact();
+         this.hasEulerianPath (c);
+         numberCircuit (c, c.eulerianPath());
+      }
+
+      /**
+       * Starts maintaining an Eulerian circuit of this graph: from now on
+       * createArc and removeArc repair it locally, and setEulerianCircuit
+       * numbers it without building a new one. Arcs without a twin are ignored.
+       * @return the tracker, to query the state of the circuit
+       */
+      public CircuitTracker trackEulerianCircuit() {
+         tracker = new CircuitTracker (this);
+         return tracker;
+      }
+
+      /**
+       * Numbers the arcs of this graph in the order of the tracked circuit.
+       * @throws RuntimeException if the tracked circuit is not valid.
+       */
+      private void numberTrackedCircuit() {
+         List<Arc> circuit = tracker.circuit();
+         if (circuit.isEmpty())
+            throw new RuntimeException ("Graph is empty.");
+         this.resetECircuit();
+         for (int k = 0; k < circuit.size(); k++)
+            circuit.get (k).info = k + 1;
+         this.lastRun = new CircuitRun (id, circuit);
+      }
+
+      /**
+       * Numbers the arcs of this graph in the order of a circuit or an open trail.
+       * @param c -- compact view the circuit was built on.
+       * @param circuit -- arc numbers of the view in circuit order.
+       */
+      private void numberCircuit (CompactGraph c, int[] circuit) {
+         this.resetECircuit();
+         for (int k = 0; k < circuit.length; k++)
+            c.arc [circuit [k]].info = k + 1;
+         this.lastRun = new CircuitRun (c, null, circuit, 0);
+      }
+
+      /**
+       * @return state of the last circuit or path numbering, null if there was none.
+       */
+      public CircuitRun lastRun() {
+         return lastRun;
+      }
+
       /**
-       * Resets the arc info and setEdges variables for a new Eulerian circuit round.
+       * Resets the arc info fields for a new Eulerian circuit round.
        */
       private void resetECircuit() {
-    	  this.setEdges = 0;
     	  Vertex vertex = first;
     	  
     	  while (vertex != null) {
@@ -335,29 +4585,8 @@ public class GraphTask {
       }
       
       /**
-       * Fetches an arc by the specified parameter string. 
-       * @param name -- the string by which the arc is looked for.
-       * @return The arc with the specified id.
-       * @throws RuntimeException if an arc with the specified name wasn't found.
-       */
-      private Arc getArcByName (String name) {
-    	  Vertex vertex = first;
-
-    	  while (vertex != null) {
-    		  Arc arc = vertex.first;
-    		  while (arc != null) {
-    			  if (arc.id.equals(name)) {
-    				  return arc;
-    			  }
-    			  arc = arc.next;
-    		  }
-    		  vertex = vertex.next;
-    	  }
-    	  throw new RuntimeException ("Something went wrong. " + name + " found no match.");
-      }
-      
-      /**
-       * Prints out the graph's adjacency matrix in a simple format.
+       * Prints out the graph's adjacency matrix in a simple format, the number
+       * of arcs from each vertex to each vertex.
        */
       public void printAdjMatrix() {
     	  int[][] m = this.createAdjMatrix();
@@ -380,7 +4609,7 @@ public class GraphTask {
     	  
     	  if (i == 1) { // vertex id.
     		  while (v != null) {
-    			  System.out.println ("Vertex " + v.id + " info property value: " + v.info);
+    			  System.out.println ("Vertex " + v + " info property value: " + v.info);
     			  v = v.next;
     		  }
     	  }
@@ -402,7 +4631,7 @@ public class GraphTask {
         		  System.out.println ("Vertex " + v + " -- ");
         		  Arc a = v.first;
         		  while (a != null) {
-        			  System.out.println ("Arc  " + a + "'s id --  " + a.id);
+        			  System.out.println ("Arc  " + a + "'s id --  " + a);
         			  a = a.next;
         		  }
             	  v = v.next;
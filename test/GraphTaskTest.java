@@ -1,6 +1,9 @@
 import static org.junit.Assert.*;
 import org.junit.Test;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.*;
 
 /** Testklass.
  * @author jaanus
@@ -13,5 +16,698 @@ public class GraphTaskTest {
       assertTrue ("There are no tests", true);
    }
 
-}
+   /**
+    * Checks the arc numbering of a circuit or trail: the numbers are 1..E,
+    * every edge has one numbered arc (every arc if directed) and each numbered
+    * arc starts where the one before it ends. Arc ends are read from toString()
+    * and the numbers from printInfo (2), so arc ids must be unique.
+    * @return source vertex of arc 1.
+    */
+   private String assertNumbering (GraphTask.Graph g, int edges, boolean closed, boolean directed) {
+      Map<String, String[]> ends = new HashMap<String, String[]>();
+      Matcher m = Pattern.compile ("(\\S+) \\((\\S+)->(\\S+)\\)").matcher (g.toString());
+      while (m.find())
+         assertNull (ends.put (m.group (1), new String[] {m.group (2), m.group (3)}));
+      PrintStream out = System.out;
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      System.setOut (new PrintStream (buffer));
+      try {
+         g.printInfo (2);
+      } finally {
+         System.setOut (out);
+      }
+      String[][] numbered = new String [edges + 1][];
+      Map<String, Integer> arcs = new HashMap<String, Integer>(); // arcs by unordered ends
+      Map<String, Integer> used = new HashMap<String, Integer>();
+      m = Pattern.compile ("Arc  (\\S+)'s info --  (\\d+)").matcher (buffer.toString());
+      while (m.find()) {
+         String[] e = ends.get (m.group (1));
+         String pair = directed || e[0].compareTo (e[1]) < 0 ? e[0] + " " + e[1] : e[1] + " " + e[0];
+         arcs.merge (pair, 1, Integer::sum);
+         int k = Integer.parseInt (m.group (2));
+         if (k == 0)
+            continue;
+         assertTrue (k <= edges);
+         assertNull (numbered [k]);
+         numbered [k] = e;
+         used.merge (pair, 1, Integer::sum);
+      }
+      assertEquals (directed ? g.compactDirected().arcCount() : 2 * edges, ends.size());
+      for (Map.Entry<String, Integer> pair : arcs.entrySet())
+         assertEquals (directed ? pair.getValue() : pair.getValue() / 2,
+            (int)used.getOrDefault (pair.getKey(), 0));
+      for (int k = 1; k < edges; k++)
+         assertEquals (numbered [k][1], numbered [k + 1][0]);
+      if (closed)
+         assertEquals (numbered [edges][1], numbered [1][0]);
+      return numbered [1][0];
+   }
+
+   /** Two triangles sharing a vertex, a greedy walk from the middle may strand edges. */
+   @Test (timeout=20000)
+   public void testBowtieCircuit() {
+      GraphTask t = new GraphTask();
+      GraphTask.Graph g = t.new Graph ("B");
+      GraphTask.Vertex[] v = new GraphTask.Vertex [5];
+      for (int i = 4; i >= 0; i--)
+         v [i] = g.createVertex ("v" + (i+1));
+      int[][] edges = {{0, 1}, {1, 2}, {2, 0}, {0, 3}, {3, 4}, {4, 0}};
+      for (int[] e : edges) {
+         g.createArc ("av" + (e[0]+1) + "_v" + (e[1]+1), v [e[0]], v [e[1]]);
+         g.createArc ("av" + (e[1]+1) + "_v" + (e[0]+1), v [e[1]], v [e[0]]);
+      }
+      g.setEulerianCircuit();
+      assertNumbering (g, 6, true, false);
+   }
+
+   /** Two separate triangles: all degrees even, but no circuit. */
+   @Test (timeout=20000)
+   public void testDisconnectedCheck() {
+      GraphTask t = new GraphTask();
+      GraphTask.Graph g = t.new Graph ("D");
+      GraphTask.Vertex[] v = new GraphTask.Vertex [6];
+      for (int i = 5; i >= 0; i--)
+         v [i] = g.createVertex ("v" + (i+1));
+      int[][] edges = {{0, 1}, {1, 2}, {2, 0}, {3, 4}, {4, 5}, {5, 3}};
+      for (int[] e : edges) {
+         g.createArc ("av" + (e[0]+1) + "_v" + (e[1]+1), v [e[0]], v [e[1]]);
+         g.createArc ("av" + (e[1]+1) + "_v" + (e[0]+1), v [e[1]], v [e[0]]);
+      }
+      GraphTask.EulerianCheck check = g.checkEulerian();
+      assertEquals (0, check.oddVertices().length);
+      assertFalse (check.isConnected());
+      assertFalse (check.hasCircuit());
+   }
+
+   /** The parallel circuit must not depend on the number of threads. */
+   @Test (timeout=20000)
+   public void testParallelCircuitDeterministic() {
+      GraphTask t = new GraphTask();
+      GraphTask.CompactGraph c = t.new GraphGenerator (7).eulerianGraph (2000, 9000).toCompact ("P");
+      ForkJoinPool single = new ForkJoinPool (1);
+      ForkJoinPool pool = new ForkJoinPool (4);
+      int[] one;
+      int[] four;
+      try {
+         one = c.eulerianCircuit (single);
+         four = c.eulerianCircuit (pool);
+      } finally {
+         single.shutdown();
+         pool.shutdown();
+      }
+      assertEquals (c.edgeCount(), one.length);
+      assertArrayEquals (one, four);
+   }
+
+   /** A triangle v1-v2-v3 with a tail v3-v4: odd ends v3 and v4. */
+   @Test (timeout=20000)
+   public void testEulerianPath() {
+      GraphTask t = new GraphTask();
+      GraphTask.EdgeList list = t.new EdgeList (4, 4);
+      int[][] edges = {{0, 1}, {1, 2}, {2, 0}, {2, 3}};
+      for (int[] e : edges)
+         list.add (e[0], e[1]);
+      GraphTask.CompactGraph c = list.toCompact ("T");
+      int[] trail = c.eulerianPath();
+      assertEquals (4, trail.length);
+      assertEquals (2, c.source (trail [0]));
+      GraphTask.Graph g = t.new Graph ("T");
+      g.addEdges (list);
+      g.setEulerianPath();
+      String start = assertNumbering (g, 4, false, false);
+      assertTrue (start.equals ("v3") || start.equals ("v4"));
+   }
+
+   /** Two directed triangles through v1 have a directed circuit, one more arc breaks it. */
+   @Test (timeout=20000)
+   public void testDirectedCircuit() {
+      GraphTask t = new GraphTask();
+      GraphTask.Graph g = t.new Graph ("R");
+      GraphTask.Vertex[] v = new GraphTask.Vertex [5];
+      for (int i = 4; i >= 0; i--)
+         v [i] = g.createVertex ("v" + (i+1));
+      int[][] arcs = {{0, 1}, {1, 2}, {2, 0}, {0, 3}, {3, 4}, {4, 0}};
+      for (int[] a : arcs)
+         g.createArc ("av" + (a[0]+1) + "_v" + (a[1]+1), v [a[0]], v [a[1]]);
+      g.setDirectedEulerianCircuit();
+      assertNumbering (g, 6, true, true);
+      g.createArc ("av2_v4", v [1], v [3]);
+      GraphTask.EulerianCheck check = g.compactDirected().checkEulerian();
+      assertEquals (2, check.oddVertices().length);
+      assertFalse (check.hasCircuit());
+   }
+
+   /** Two parallel edges v1-v2 and a loop at v2 make a circuit of three edges. */
+   @Test (timeout=20000)
+   public void testMultigraphCircuit() {
+      GraphTask t = new GraphTask();
+      GraphTask.Graph g = t.new Graph ("M");
+      GraphTask.Vertex v2 = g.createVertex ("v2");
+      GraphTask.Vertex v1 = g.createVertex ("v1");
+      g.createArc ("a1", v1, v2);
+      g.createArc ("a2", v1, v2);
+      g.createArc ("a3", v2, v1);
+      g.createArc ("a4", v2, v1);
+      g.createArc ("a5", v2, v2);
+      g.createArc ("a6", v2, v2);
+      assertTrue (g.checkEulerian().hasCircuit());
+      int[] circuit = g.compact().eulerianCircuit();
+      assertEquals (3, circuit.length);
+      g.setEulerianCircuit();
+      assertNumbering (g, 3, true, false);
+   }
+
+   /** A streamed directed circuit comes out in forward order. */
+   @Test (timeout=20000)
+   public void testStreamedDirectedCircuit() {
+      GraphTask t = new GraphTask();
+      GraphTask.Graph g = t.new Graph ("S");
+      GraphTask.Vertex[] v = new GraphTask.Vertex [4];
+      for (int i = 3; i >= 0; i--)
+         v [i] = g.createVertex ("v" + (i+1));
+      int[][] arcs = {{0, 1}, {1, 2}, {2, 0}, {2, 3}, {3, 2}};
+      for (int[] a : arcs)
+         g.createArc ("av" + (a[0]+1) + "_v" + (a[1]+1), v [a[0]], v [a[1]]);
+      GraphTask.CompactGraph c = g.compactDirected();
+      List<Integer> order = new ArrayList<Integer>();
+      c.eulerianCircuit (k -> order.add (k));
+      assertEquals (5, order.size());
+      for (int i = 0; i < order.size(); i++) {
+         int next = order.get ((i + 1) % order.size());
+         assertEquals (c.target (order.get (i)), c.source (next));
+      }
+   }
+
+   /** A saved graph file loads back into the same compact graph and graph. */
+   @Test (timeout=20000)
+   public void testGraphFileRoundTrip() throws Exception {
+      GraphTask t = new GraphTask();
+      GraphTask.CompactGraph c = t.new GraphGenerator (11).eulerianGraph (500, 2000).toCompact ("F");
+      java.nio.file.Path f = java.nio.file.Files.createTempFile ("graph", ".bin");
+      try {
+         t.new GraphFile().save (c, f);
+         GraphTask.CompactGraph d = t.new GraphFile().load (f);
+         assertEquals (c.arcCount(), d.arcCount());
+         assertArrayEquals (c.eulerianCircuit(), d.eulerianCircuit());
+         GraphTask.Graph g = t.new Graph ("F");
+         g.load (f);
+         assertArrayEquals (c.eulerianCircuit(), g.compact().eulerianCircuit());
+
+         GraphTask.Graph h = t.new Graph ("H");
+         h.createRandomEulerianGraph (5, 5, 1);
+         String before = h.toString();
+         h.save (f);
+         h.load (f);
+         assertEquals (before, h.toString());
+
+         GraphTask.ConcurrentGraphBuilder b = t.new ConcurrentGraphBuilder (8);
+         b.addEdge (70, 80);
+         b.addEdge (80, 90);
+         b.addEdge (90, 70);
+         t.new GraphFile().save (b.freeze ("L"), f);
+         assertEquals ("v90", t.new GraphFile().load (f).vertexId (2));
+
+         // {byte position, int written there}: the offsets start after the
+         // 20 byte header, the 6 targets at 36 and the twins at 60
+         t.new GraphFile().save (b.freeze ("L"), f);
+         for (int[] damage : new int[][] {{20, 1}, {24, 7}, {36, 9}, {36, -1}, {60, 0}, {60, 6}}) {
+            byte[] bytes = java.nio.file.Files.readAllBytes (f);
+            java.nio.ByteBuffer.wrap (bytes).putInt (damage [0], damage [1]);
+            java.nio.file.Files.write (f, bytes);
+            try {
+               t.new GraphFile().load (f);
+               fail ("damaged file loaded: " + java.util.Arrays.toString (damage));
+            } catch (java.io.IOException e) {
+               assertTrue (e.getMessage().endsWith ("is damaged."));
+            }
+            t.new GraphFile().save (b.freeze ("L"), f);
+         }
+      } finally {
+         java.nio.file.Files.delete (f);
+      }
+   }
+
+   @Test (timeout=20000)
+   public void testReadEdgeList() throws Exception {
+      GraphTask t = new GraphTask();
+      java.nio.file.Path f = java.nio.file.Files.createTempFile ("graph", ".txt");
+      try {
+         java.nio.file.Files.writeString (f, "# bowtie\n10 20\n20\t30\n\n30 10 7\n"
+            + "c dimacs\ne 10 40\n10 50\r\n40 50");
+         GraphTask.Graph g = t.new Graph ("E");
+         g.readEdgeList (f);
+         GraphTask.CompactGraph c = g.compact();
+         assertEquals (5, c.vertexCount());
+         assertEquals (6, c.edgeCount());
+         assertTrue (g.toString().contains ("v10 -->"));
+         assertEquals (6, c.eulerianCircuit().length);
+         // road graph: a triangle listed both ways and a one-way arc 3 4
+         java.nio.file.Files.writeString (f, "p sp 4 7\na 1 2 5\na 2 1 5\na 2 3 4\n"
+            + "a 3 1 2\na 3 2 4\na 1 3 2\na 3 4 1\n");
+         g.readEdgeList (f);
+         assertEquals (4, g.compact().edgeCount());
+         assertFalse (g.checkEulerian().hasCircuit());
+         java.nio.file.Files.writeString (f, "1 x2\n");
+         try {
+            g.readEdgeList (f);
+            fail ("malformed line accepted");
+         } catch (java.io.IOException e) {
+            assertTrue (e.getMessage().startsWith ("Line 1"));
+         }
+         java.nio.file.Files.writeString (f, "9223372036854775807 -9223372036854775808\n"
+            + "9223372036854775808 1\n");
+         try {
+            g.readEdgeList (f);
+            fail ("overflowing id accepted");
+         } catch (java.io.IOException e) {
+            assertEquals ("Line 2: vertex id out of range.", e.getMessage());
+         }
+         java.nio.file.Files.writeString (f, "9223372036854775807 -9223372036854775808\n");
+         g.readEdgeList (f);
+         assertEquals (1, g.compact().edgeCount());
+      } finally {
+         java.nio.file.Files.delete (f);
+      }
+   }
+
+   /** Checks that consecutive arcs av<i>_v<j> of a circuit meet and that it closes. */
+   private void assertClosedTrail (List<GraphTask.Arc> circuit) {
+      for (int k = 0; k < circuit.size(); k++) {
+         String a = circuit.get (k).toString();
+         String b = circuit.get ((k + 1) % circuit.size()).toString();
+         assertEquals (a.substring (a.indexOf ('_') + 1), b.substring (1, b.indexOf ('_')));
+      }
+   }
+
+   @Test (timeout=20000)
+   public void testTrackedCircuit() {
+      GraphTask t = new GraphTask();
+      GraphTask.Graph g = t.new Graph ("T");
+      GraphTask.Vertex[] v = new GraphTask.Vertex [6];
+      for (int i = 4; i >= 0; i--)
+         v [i] = g.createVertex ("v" + (i+1));
+      int[][] edges = {{0, 1}, {1, 2}, {2, 0}, {0, 3}, {3, 4}, {4, 0}};
+      GraphTask.CircuitTracker tracker = null;
+      for (int k = 0; k < edges.length; k++) {
+         if (k == 3) {
+            tracker = g.trackEulerianCircuit();
+            assertEquals (3, tracker.circuit().size());
+         }
+         int[] e = edges [k];
+         g.createArc ("av" + (e[0]+1) + "_v" + (e[1]+1), v [e[0]], v [e[1]]);
+         g.createArc ("av" + (e[1]+1) + "_v" + (e[0]+1), v [e[1]], v [e[0]]);
+      }
+      assertTrue (tracker.isEulerian());
+      assertEquals (6, tracker.circuit().size());
+      assertClosedTrail (tracker.circuit());
+
+      // reroute v1 - v2 through a new vertex v6
+      v [5] = g.createVertex ("v6");
+      g.removeArc (v [0], g.getArc (v [0], v [1]));
+      assertFalse (tracker.isEulerian());
+      assertEquals (2, tracker.oddVertices());
+      g.createArc ("av1_v6", v [0], v [5]);
+      g.createArc ("av6_v1", v [5], v [0]);
+      g.createArc ("av6_v2", v [5], v [1]);
+      g.createArc ("av2_v6", v [1], v [5]);
+      assertTrue (tracker.isEulerian());
+      assertEquals (0, tracker.rebuilds());
+      assertEquals (7, tracker.circuit().size());
+      assertClosedTrail (tracker.circuit());
+      assertNull (g.getArc (v [0], v [1]));
+
+      g.setEulerianCircuit();
+      GraphTask.CircuitRun run = g.lastRun();
+      assertTrue (run.hasCircuit());
+      assertEquals (7, run.arcIds().size());
+      for (int k = 0; k < 7; k++)
+         assertEquals (tracker.circuit().get (k).toString(), run.arcIds().get (k));
+      g.removeArc (v [3], g.getArc (v [3], v [4]));
+      g.removeArc (v [0], g.getArc (v [0], v [3]));
+      g.removeArc (v [4], g.getArc (v [4], v [0]));
+      assertTrue (tracker.isEulerian());
+      assertEquals (4, tracker.circuit().size());
+      assertClosedTrail (tracker.circuit());
+
+      // a one-way arc is ignored by a new tracker instead of failing compact()
+      g.createArc ("av1_v3", v [0], v [2]);
+      tracker = g.trackEulerianCircuit();
+      assertTrue (tracker.isEulerian());
+      assertEquals (4, tracker.circuit().size());
+   }
+
+   @Test (timeout=20000)
+   public void testEulerianBatch() {
+      GraphTask t = new GraphTask();
+      List<GraphTask.EdgeList> lists = new ArrayList<GraphTask.EdgeList>();
+      for (int i = 0; i < 20; i++)
+         lists.add (t.new GraphGenerator (i).eulerianGraph (50 + i, 200));
+      lists.add (t.new GraphGenerator (99).simpleGraph (10, 9)); // a tree
+      List<GraphTask.CircuitRun> runs = t.new EulerianBatch (4).analyseEdgeLists (lists);
+      assertEquals (21, runs.size());
+      for (int i = 0; i < 20; i++) {
+         assertEquals ("L" + i, runs.get (i).graphId());
+         assertTrue (runs.get (i).hasCircuit());
+         assertEquals (200, runs.get (i).arcIds().size());
+         assertEquals (runs.get (i).startVertexId(), runs.get (i).endVertexId());
+      }
+      assertFalse (runs.get (20).hasCircuit());
+      assertFalse (runs.get (20).check().hasCircuit());
+   }
+
+   @Test (timeout=20000)
+   public void testConcurrentCircuitQueries() throws Exception {
+      GraphTask t = new GraphTask();
+      GraphTask.Graph g = t.new Graph ("Q");
+      g.createRandomEulerianGraph (300, 1200, 5);
+      List<String> expected = g.findEulerianCircuit().arcIds();
+      assertEquals (1200, expected.size());
+      java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool (4);
+      try {
+         List<java.util.concurrent.Future<List<String>>> results = new ArrayList<>();
+         for (int i = 0; i < 16; i++)
+            results.add (pool.submit (() -> g.findEulerianCircuit().arcIds()));
+         for (java.util.concurrent.Future<List<String>> f : results)
+            assertEquals (expected, f.get());
+      } finally {
+         pool.shutdown();
+      }
+   }
+
+   @Test (timeout=20000)
+   public void testConcurrentBuilder() throws Exception {
+      GraphTask t = new GraphTask();
+      GraphTask.CompactGraph c = t.new GraphGenerator (17).eulerianGraph (2000, 10000).toCompact ("C");
+      GraphTask.ConcurrentGraphBuilder b = t.new ConcurrentGraphBuilder (2000);
+      Thread[] threads = new Thread [4];
+      for (int i = 0; i < threads.length; i++) {
+         int part = i;
+         threads [i] = new Thread (() -> {
+            for (int k = 0; k < c.arcCount(); k++) {
+               int u = c.source (k);
+               int w = c.target (k);
+               if (u < w && (u + w) % threads.length == part)
+                  b.addEdge (1000 + u, 1000 + w);
+            }
+         });
+         threads [i].start();
+      }
+      for (Thread th : threads)
+         th.join();
+      GraphTask.CompactGraph d = b.freeze ("D");
+      assertEquals (2000, d.vertexCount());
+      assertEquals (10000, d.edgeCount());
+      assertTrue (d.checkEulerian().hasCircuit());
+      assertEquals (10000, d.eulerianCircuit().length);
+      assertTrue (d.vertexId (0).startsWith ("v1"));
+
+      // every new id past the limit fails, also when there are more than the table holds
+      GraphTask.ConcurrentGraphBuilder small = t.new ConcurrentGraphBuilder (4);
+      for (long id = 0; id < 100; id++) {
+         try {
+            small.vertex (id);
+            assertTrue (id < 4);
+         } catch (RuntimeException e) {
+            assertTrue (id >= 4);
+            assertTrue (e.getMessage().startsWith ("Too many vertices"));
+         }
+      }
+      assertEquals (2, small.vertex (2));
+      assertEquals (4, small.vertexCount());
+   }
+
+   /** Two random graphs side by side and two isolated vertices. */
+   @Test (timeout=20000)
+   public void testComponents() {
+      GraphTask t = new GraphTask();
+      GraphTask.CompactGraph a = t.new GraphGenerator (3).eulerianGraph (3000, 6000).toCompact ("A");
+      GraphTask.CompactGraph b = t.new GraphGenerator (4).eulerianGraph (500, 1000).toCompact ("B");
+      GraphTask.EdgeList list = t.new EdgeList (3502, 7000);
+      for (int k = 0; k < a.arcCount(); k++) {
+         if (a.source (k) < a.target (k))
+            list.add (a.source (k), a.target (k));
+      }
+      for (int k = 0; k < b.arcCount(); k++) {
+         if (b.source (k) < b.target (k))
+            list.add (3001 + b.source (k), 3001 + b.target (k));
+      }
+      GraphTask.CompactGraph c = list.toCompact ("C");
+      GraphTask.Components seq = c.components();
+      assertEquals (4, seq.count());
+      assertArrayEquals (new int[] {3000, 1, 500, 1}, seq.sizes());
+      assertArrayEquals (seq.sizes(), list.components().sizes());
+      ForkJoinPool pool = new ForkJoinPool (3);
+      GraphTask.Components par;
+      try {
+         par = c.components (pool);
+      } finally {
+         pool.shutdown();
+      }
+      for (int u = 0; u < c.vertexCount(); u++)
+         assertEquals (seq.componentOf (u), par.componentOf (u));
+      GraphTask.EulerianCheck check = c.checkEulerian();
+      assertFalse (check.hasCircuit());
+      assertEquals (4, check.components().count());
+   }
+
+   @Test (timeout=20000)
+   public void testBitMatrix() {
+      GraphTask t = new GraphTask();
+      GraphTask.BitMatrix k7 = t.new BitMatrix (7);
+      for (int i = 0; i < 7; i++) {
+         for (int j = i + 1; j < 7; j++)
+            k7.setEdge (i, j);
+      }
+      assertEquals (6, k7.degree (3));
+      assertEquals (21, k7.edgeCount());
+      assertEquals (4, k7.nextNeighbour (3, 4));
+      int[] circuit = k7.eulerianCircuit();
+      assertEquals (22, circuit.length);
+      assertEquals (circuit [0], circuit [21]);
+      Set<Integer> used = new HashSet<Integer>();
+      for (int k = 0; k < 21; k++) {
+         assertTrue (k7.has (circuit [k], circuit [k + 1]));
+         int a = Math.min (circuit [k], circuit [k + 1]);
+         int b = Math.max (circuit [k], circuit [k + 1]);
+         assertTrue (used.add (7 * a + b));
+      }
+
+      GraphTask.Graph g = t.new Graph ("M");
+      g.createRandomSimpleGraph (3000, 6000);
+      GraphTask.BitMatrix m = g.createBitMatrix();
+      assertEquals (6000, m.edgeCount());
+      assertTrue (m.isConnected());
+
+      GraphTask.Graph e = t.new Graph ("E");
+      e.createRandomEulerianGraph (60, 1000, 5);
+      e.setDenseEulerianCircuit();
+      assertNumbering (e, 1000, true, false);
+      assertEquals (1000, e.lastRun().arcIds().size());
+      GraphTask.Vertex x = e.createVertex ("x");
+      e.createArc ("ax_x", x, x);
+      e.createArc ("ax_x2", x, x);
+      try {
+         e.setDenseEulerianCircuit();
+         fail ("loop accepted");
+      } catch (RuntimeException ex) {
+         assertTrue (ex.getMessage().contains ("not simple"));
+      }
+   }
+
+   /** Square with a long diagonal: the odd ends are joined around the square. */
+   @Test (timeout=20000)
+   public void testChinesePostman() {
+      GraphTask t = new GraphTask();
+      GraphTask.Graph g = t.new Graph ("P");
+      GraphTask.Vertex[] v = new GraphTask.Vertex [4];
+      for (int i = 3; i >= 0; i--)
+         v [i] = g.createVertex ("v" + (i+1));
+      int[][] edges = {{0, 1, 1}, {1, 2, 1}, {2, 3, 1}, {3, 0, 1}, {0, 2, 5}};
+      for (int[] e : edges) {
+         g.createArc ("av" + (e[0]+1) + "_v" + (e[1]+1), v [e[0]], v [e[1]], e[2]);
+         g.createArc ("av" + (e[1]+1) + "_v" + (e[0]+1), v [e[1]], v [e[0]], e[2]);
+      }
+      GraphTask.PostmanTour tour = g.chinesePostman();
+      assertTrue (tour.isExact());
+      assertEquals (11.0, tour.cost(), 1e-9);
+      assertEquals (2, tour.addedEdges());
+      assertEquals (7, tour.length());
+      List<String> ids = tour.arcIds();
+      for (int k = 0; k < ids.size(); k++) {
+         String to = ids.get (k).substring (ids.get (k).indexOf ('_') + 1);
+         String next = ids.get ((k + 1) % ids.size());
+         assertEquals (to, next.substring (1, next.indexOf ('_')));
+      }
+   }
+
+   /** Phases and counters are recorded only while metrics are enabled. */
+   @Test (timeout=20000)
+   public void testMetrics() throws Exception {
+      GraphTask t = new GraphTask();
+      GraphTask.Graph g = t.new Graph ("M");
+      g.createRandomEulerianGraph (50, 120, 7L);
+      assertEquals (0, t.enableMetrics().calls (GraphTask.Phase.GENERATE));
+      GraphTask.Metrics m = t.enableMetrics();
+      List<GraphTask.Phase> seen = new ArrayList<GraphTask.Phase>();
+      m.addListener ((phase, graphId, nanos, bytes) -> seen.add (phase));
+      assertTrue (g.findEulerianCircuit().hasCircuit());
+      assertEquals (1, m.calls (GraphTask.Phase.CHECK));
+      assertEquals (1, m.calls (GraphTask.Phase.CIRCUIT));
+      assertTrue (m.getArcsVisited() >= 240);
+      assertTrue (seen.contains (GraphTask.Phase.COMPACT));
+      g.createRandomSimpleGraph (30, 60);
+      assertEquals (1, m.calls (GraphTask.Phase.GENERATE));
+      assertEquals (1, m.calls (GraphTask.Phase.MATRIX));
 
+      javax.management.ObjectName name = m.register ("GraphTask:type=Metrics,name=test");
+      javax.management.MBeanServer server =
+         java.lang.management.ManagementFactory.getPlatformMBeanServer();
+      assertEquals (m.getArcsVisited(), server.getAttribute (name, "ArcsVisited"));
+      server.unregisterMBean (name);
+
+      try {
+         g.compactDirected().eulerianCircuit (ForkJoinPool.commonPool());
+         fail ("A directed view has no parallel circuit.");
+      } catch (RuntimeException e) {
+         assertEquals (2, m.calls (GraphTask.Phase.CIRCUIT)); // a failed phase is timed too
+      }
+
+      t.disableMetrics();
+      long visited = m.getArcsVisited();
+      g.findEulerianCircuit();
+      assertEquals (visited, m.getArcsVisited());
+   }
+
+   /** Generated vertices and arcs have no name strings but print as before. */
+   @Test (timeout=20000)
+   public void testLazyNames() {
+      GraphTask t = new GraphTask();
+      GraphTask.Graph g = t.new Graph ("N");
+      GraphTask.Vertex u = g.createVertex (7);
+      GraphTask.Vertex w = g.createVertex (8);
+      GraphTask.Arc a = g.createArc (u, w);
+      assertEquals ("av7_v8", a.toString());
+      GraphTask.Arc b = g.createArc (w, u);
+      assertEquals ("v7", u.toString());
+      assertEquals ("av7_v8", a.toString());
+      assertEquals ("av8_v7", b.toString());
+      assertEquals (1, w.index());
+      assertEquals (1, b.index());
+      assertTrue (g.toString().contains ("v8 --> av8_v7 (v8->v7)"));
+      assertEquals ("av7_v8", g.compact().arcId (0));
+   }
+
+   /** A directed graph file is loaded with the same lazily made arc names. */
+   @Test (timeout=20000)
+   public void testDirectedFileNames() throws Exception {
+      GraphTask t = new GraphTask();
+      GraphTask.Graph g = t.new Graph ("D");
+      GraphTask.Vertex[] v = new GraphTask.Vertex [3];
+      for (int i = 2; i >= 0; i--)
+         v [i] = g.createVertex (i + 1);
+      g.createArc (v [0], v [1]);
+      g.createArc (v [1], v [2]);
+      g.createArc (v [2], v [0]);
+      String before = g.toString();
+      java.nio.file.Path f = java.nio.file.Files.createTempFile ("graph", ".bin");
+      try {
+         t.new GraphFile().save (g.compactDirected(), f);
+         g.load (f);
+      } finally {
+         java.nio.file.Files.delete (f);
+      }
+      assertEquals (before, g.toString());
+      assertTrue (before.contains ("av3_v1 (v3->v1)"));
+   }
+
+   /** A seeded graph does not depend on the pool that draws it. */
+   @Test (timeout=20000)
+   public void testSeededGeneration() {
+      GraphTask t = new GraphTask();
+      GraphTask.Graph a = t.new Graph ("S");
+      GraphTask.Graph b = t.new Graph ("S");
+      a.createRandomSimpleGraph (20000, 60000, 42L);
+      ForkJoinPool pool = new ForkJoinPool (4);
+      try {
+         b.createRandomSimpleGraph (20000, 60000, 42L, pool);
+      } finally {
+         pool.shutdown();
+      }
+      assertEquals (a.toString(), b.toString());
+      assertEquals (1, a.components().count());
+      b.createRandomSimpleGraph (20000, 60000, 43L);
+      assertFalse (a.toString().equals (b.toString()));
+
+      a.createRandomTree (1000, 5L);
+      b.createRandomTree (1000, 5L);
+      assertEquals (a.toString(), b.toString());
+      assertEquals (1, a.components().count());
+      a.createRandomSimpleGraph (40, 700, 9L); // dense
+      assertEquals (1400, a.compact().arcCount());
+   }
+
+   /** A graph made on a prebuilt vertex chain indexes and pairs its arcs. */
+   @Test (timeout=20000)
+   public void testPrebuiltChain() {
+      GraphTask t = new GraphTask();
+      GraphTask.Vertex v3 = t.new Vertex ("v3");
+      GraphTask.Arc a23 = t.new Arc ("av2_v3", v3, null);
+      GraphTask.Vertex v2 = t.new Vertex ("v2", v3, a23);
+      GraphTask.Arc a13 = t.new Arc ("av1_v3", v3, null);
+      GraphTask.Arc a12 = t.new Arc ("av1_v2", v2, a13);
+      GraphTask.Vertex v1 = t.new Vertex ("v1", v2, a12);
+      GraphTask.Graph g = t.new Graph ("C", v1);
+      assertEquals (2, v1.index());
+      assertEquals (0, v3.index());
+      assertEquals (0, a23.index());
+      assertEquals (2, a12.index());
+      assertSame (a12, g.getArc (v1, v2));
+      assertSame (a13, g.getArc (v1, v3));
+      assertNull (g.getArc (v2, v1));
+      assertEquals (3, g.compactDirected().arcCount());
+      GraphTask.Vertex v4 = g.createVertex ("v4");
+      assertEquals (3, v4.index());
+      g.createArc ("av2_v1", v2, v1);
+      g.createArc ("av3_v1", v3, v1);
+      g.createArc ("av3_v2", v3, v2);
+      assertEquals (3, g.compact().edgeCount());
+      assertTrue (g.checkEulerian().hasCircuit());
+   }
+
+   /**
+    * Every feasible size up to 10 vertices gives a simple connected Eulerian
+    * graph, and only the sizes without such a graph are rejected.
+    */
+   @Test (timeout=20000)
+   public void testEulerianGraphSizes() {
+      GraphTask t = new GraphTask();
+      for (int n = 1; n <= 10; n++) {
+         int pairs = n * (n - 1) / 2;
+         int max = n % 2 == 1 ? pairs : pairs - n / 2;
+         for (int m = 0; m <= pairs; m++) {
+            boolean feasible = n >= 3 && m >= n && m <= max
+               && !(n % 2 == 1 && m > max - 3 && m < max);
+            for (long seed = 0; seed < 5; seed++) {
+               GraphTask.EdgeList list;
+               try {
+                  list = t.new GraphGenerator (seed).eulerianGraph (n, m);
+               } catch (IllegalArgumentException e) {
+                  assertFalse (n + " " + m, feasible);
+                  continue;
+               }
+               assertTrue (n + " " + m, feasible);
+               GraphTask.CompactGraph c = list.toCompact ("E");
+               assertEquals (m, c.edgeCount());
+               assertTrue (c.checkEulerian().hasCircuit());
+               assertEquals (1, c.components().count());
+               Set<Integer> seen = new HashSet<Integer>();
+               for (int k = 0; k < c.arcCount(); k++) {
+                  assertTrue (c.source (k) != c.target (k));
+                  assertTrue (seen.add (n * c.source (k) + c.target (k)));
+               }
+            }
+         }
+      }
+   }
+
+}